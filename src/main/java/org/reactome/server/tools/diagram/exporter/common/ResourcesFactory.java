@@ -26,6 +26,9 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Provides access to project resources: diagrams, graphs and color profiles.
@@ -37,7 +40,18 @@ public class ResourcesFactory {
 	private static final Logger logger = LoggerFactory.getLogger("infoLogger");
 
 	private static final String DEFAULT_DIAGRAM_PROFILE = "modern";
-	private static final SAXSVGDocumentFactory DOCUMENT_FACTORY = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+	// the factory keeps the state of the document being parsed
+	private static final ThreadLocal<SAXSVGDocumentFactory> DOCUMENT_FACTORY = ThreadLocal.withInitial(() -> new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName()));
+	private static final int MAX_GRAPHS = 100;
+	// Profiles are resources of the jar, so they never change
+	private static final Map<String, DiagramProfile> PROFILES = new ConcurrentHashMap<>();
+	// Graphs are not modified by the renderers, so they can be shared
+	private static final Map<Path, CachedGraph> GRAPHS = new LinkedHashMap<Path, CachedGraph>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Path, CachedGraph> eldest) {
+			return size() > MAX_GRAPHS;
+		}
+	};
 
 	/**
 	 * Loads into memory the DiagramProfile corresponding to getName profile. If
@@ -57,17 +71,23 @@ public class ResourcesFactory {
 	public static DiagramProfile getDiagramProfile(String name) throws DiagramProfileException, DiagramJsonDeserializationException {
 		if (name == null) name = DEFAULT_DIAGRAM_PROFILE;
 		logger.trace("Getting Profile [{}]", name);
-		final String file = "/profiles/" + name.toLowerCase() + ".json";
+		String file = "/profiles/" + name.toLowerCase() + ".json";
+		final DiagramProfile cached = PROFILES.get(file);
+		if (cached != null) return cached;
 		InputStream resource = DiagramExporter.class.getResourceAsStream(file);
-		if (resource == null)
-			resource = DiagramExporter.class.getResourceAsStream("/profiles/" + DEFAULT_DIAGRAM_PROFILE + ".json");
+		if (resource == null) {
+			file = "/profiles/" + DEFAULT_DIAGRAM_PROFILE + ".json";
+			resource = DiagramExporter.class.getResourceAsStream(file);
+		}
 		try {
 			if (resource == null) {
 				logger.error("Could not read diagram color profile {}", name);
 				throw new DiagramProfileException("Could not read diagram color profile " + name);
 			}
 			final String json = IOUtils.toString(resource, Charset.defaultCharset());
-			return DiagramFactory.getProfile(json);
+			final DiagramProfile profile = DiagramFactory.getProfile(json);
+			final DiagramProfile previous = PROFILES.putIfAbsent(file, profile);
+			return previous == null ? profile : previous;
 		} catch (DeserializationException e) {
 			logger.error("Could not deserialize diagram color profile {}", name);
 			throw new DiagramJsonDeserializationException("Could not deserialize diagram color profile " + name);
@@ -106,7 +126,9 @@ public class ResourcesFactory {
 	}
 
 	/**
-	 * Creates a new Graph.
+	 * Gets the Graph of stId. The most recently used graphs are kept in
+	 * memory while their files do not change, so the same instance is
+	 * returned for the same file. Graphs must not be modified.
 	 *
 	 * @param diagramPath path where the {stId}.graph.json file is located
 	 * @param stId        stable identifier of the diagram
@@ -121,9 +143,21 @@ public class ResourcesFactory {
 	public static Graph getGraph(String diagramPath, String stId) throws DiagramJsonDeserializationException, DiagramJsonNotFoundException {
 		final Path pathway = Paths.get(diagramPath, stId + ".graph.json");
 		logger.trace("Getting graph JSON {}", pathway);
+		final File file = pathway.toFile();
+		final long lastModified = file.lastModified();
+		final long length = file.length();
+		synchronized (GRAPHS) {
+			final CachedGraph cached = GRAPHS.get(pathway);
+			if (cached != null && cached.lastModified == lastModified && cached.length == length)
+				return cached.graph;
+		}
 		try {
 			String json = new String(Files.readAllBytes(pathway));
-			return DiagramFactory.getGraph(json);
+			final Graph graph = DiagramFactory.getGraph(json);
+			synchronized (GRAPHS) {
+				GRAPHS.put(pathway, new CachedGraph(lastModified, length, graph));
+			}
+			return graph;
 		} catch (DeserializationException e) {
 			logger.error("Could not deserialize diagram json for pathway {}", pathway);
 			throw new DiagramJsonDeserializationException("Could not deserialize diagram json for pathway " + pathway);
@@ -138,9 +172,21 @@ public class ResourcesFactory {
 		if (!file.exists())
 			throw new EhldNotFoundException("EHLD not found for " + stId);
 		try {
-			return DOCUMENT_FACTORY.createSVGDocument(file.getPath());
+			return DOCUMENT_FACTORY.get().createSVGDocument(file.getPath());
 		} catch (IOException e) {
 			throw new EhldMalformedException("EHLD document is not valid " + stId);
 		}
 	}
+
+	private static class CachedGraph {
+		private final long lastModified;
+		private final long length;
+		private final Graph graph;
+
+		CachedGraph(long lastModified, long length, Graph graph) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.graph = graph;
+		}
+	}
 }
@@ -4,54 +4,201 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.io.IOUtils;
 import org.reactome.server.tools.diagram.data.exception.DeserializationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Queries the ContentService. Connections are kept alive and reused by the
+ * JVM, as every response is read completely and closed. Requests time out,
+ * so a slow ContentService cannot block the exporter, and responses are
+ * cached for a while.
+ */
 public class ContentServiceClient {
 
-	private static String HOST = "http://localhost";
-	private static String SERVICE = "/ContentService";
+	private static final Logger logger = LoggerFactory.getLogger("infoLogger");
+	// settings are read by the request threads
+	private static volatile String HOST = "http://localhost";
+	private static volatile String SERVICE = "/ContentService";
 	private static final String QUERY = "/data/diagram/%s/entities/%s?pathways=%s";
+	private static final int MAX_CACHE_SIZE = 1000;
+	private static final int PARALLEL_REQUESTS = 8;
 	private static ObjectMapper mapper = new ObjectMapper();
+	private static volatile int connectTimeout = 2000;
+	private static volatile int readTimeout = 5000;
+	private static volatile long cacheTtl = TimeUnit.MINUTES.toMillis(10);
+	private static volatile long flaggedTimeout = 10_000;
+	private static final Map<String, CachedResponse> CACHE = new ConcurrentHashMap<>();
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(PARALLEL_REQUESTS, new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "content-service-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 
 	public static void setHost(String host) {
 		ContentServiceClient.HOST = host;
 	}
 
+	public static String getHost() {
+		return HOST;
+	}
+
 	public static void setService(String service) {
 		ContentServiceClient.SERVICE = service;
 	}
 
+	public static String getService() {
+		return SERVICE;
+	}
+
+	/**
+	 * Max time, in milliseconds, to open a connection. Defaults to 2000.
+	 */
+	public static void setConnectTimeout(int connectTimeout) {
+		ContentServiceClient.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Max time, in milliseconds, waiting for data. Defaults to 5000.
+	 */
+	public static void setReadTimeout(int readTimeout) {
+		ContentServiceClient.readTimeout = readTimeout;
+	}
+
+	/**
+	 * How long, in milliseconds, responses are cached. 0 disables the cache.
+	 * Defaults to 10 minutes.
+	 */
+	public static void setCacheTtl(long cacheTtl) {
+		ContentServiceClient.cacheTtl = cacheTtl;
+	}
+
+	/**
+	 * Max time, in milliseconds, that {@link #getFlagged(Collection, String,
+	 * Collection)} waits for all its terms, including the time their requests
+	 * wait for a free thread. Defaults to 10000.
+	 */
+	public static void setFlaggedTimeout(long flaggedTimeout) {
+		ContentServiceClient.flaggedTimeout = flaggedTimeout;
+	}
+
+	public static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * @return the pathways that contain term, which can't be modified, or
+	 * null if the ContentService fails or does not answer in time. A term
+	 * that is not found (404) has no pathways, and it is cached as such
+	 */
 	public static List<ContentServiceResponse> getFlagged(String term, String stId, Collection<String> pathways) {
+		// responses of a previous host or service are not reused
+		final String url = HOST + SERVICE + String.format(QUERY, stId, term, String.join(",", pathways));
+		final CachedResponse cached = CACHE.get(url);
+		if (cached != null && cached.expires > System.currentTimeMillis())
+			return cached.responses;
+		List<ContentServiceResponse> responses = request(url);
+		if (responses == null) return null;
+		responses = Collections.unmodifiableList(responses);
+		final long ttl = cacheTtl;
+		if (ttl > 0) {
+			if (CACHE.size() >= MAX_CACHE_SIZE) purge();
+			CACHE.put(url, new CachedResponse(System.currentTimeMillis() + ttl, responses));
+		}
+		return responses;
+	}
+
+	/**
+	 * Same as {@link #getFlagged(String, String, Collection)} for each term,
+	 * sending the requests in parallel. Requests share a pool of threads with
+	 * the rest of calls, so the whole call is limited by {@link
+	 * #setFlaggedTimeout(long)}.
+	 *
+	 * @return the responses of each term, null if its request failed or did
+	 * not finish in time
+	 */
+	public static Map<String, List<ContentServiceResponse>> getFlagged(Collection<String> terms, String stId, Collection<String> pathways) {
+		final Map<String, Future<List<ContentServiceResponse>>> futures = new LinkedHashMap<>();
+		for (String term : terms)
+			futures.put(term, EXECUTOR.submit(() -> getFlagged(term, stId, pathways)));
+		final Map<String, List<ContentServiceResponse>> responses = new LinkedHashMap<>();
+		final long deadline = System.currentTimeMillis() + flaggedTimeout;
 		try {
-			final URL url = new URL(HOST + SERVICE + String.format(QUERY, stId, term, String.join(",", pathways)));
+			for (Map.Entry<String, Future<List<ContentServiceResponse>>> entry : futures.entrySet()) {
+				try {
+					final long remaining = Math.max(0, deadline - System.currentTimeMillis());
+					responses.put(entry.getKey(), entry.getValue().get(remaining, TimeUnit.MILLISECONDS));
+				} catch (TimeoutException e) {
+					logger.warn("ContentService did not answer in time for {}", entry.getKey());
+					responses.put(entry.getKey(), null);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// getFlagged does not throw
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			// requests still queued are not needed anymore
+			futures.values().forEach(future -> future.cancel(true));
+		}
+		return responses;
+	}
 
-			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+	private static List<ContentServiceResponse> request(String address) {
+		HttpURLConnection connection = null;
+		try {
+			final URL url = new URL(address);
+			connection = (HttpURLConnection) url.openConnection();
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
 			connection.setRequestMethod("GET");
 			connection.setRequestProperty("Response-Type", "application/json");
-			switch (connection.getResponseCode()) {
-				case 200:
-					String json = IOUtils.toString(connection.getInputStream(), Charset.defaultCharset());
+			if (connection.getResponseCode() == 200) {
+				try (InputStream is = connection.getInputStream()) {
+					final String json = IOUtils.toString(is, Charset.defaultCharset());
 					return getObject(new TypeReference<List<ContentServiceResponse>>() {
 					}, json);
-				default:
-					String error = IOUtils.toString(connection.getInputStream(), Charset.defaultCharset());
-					// TODO: throw proper error
-					// This is throwing a DeseralizationException
-//					throw new AnalysisException(getObject(AnalysisError.class, error));
+				}
 			}
-
+			// The error must also be read to reuse the connection
+			final InputStream errorStream = connection.getErrorStream();
+			final String error = errorStream == null ? "" : IOUtils.toString(errorStream, Charset.defaultCharset());
+			if (errorStream != null) errorStream.close();
+			// the term is not in any of the pathways
+			if (connection.getResponseCode() == 404) return Collections.emptyList();
+			logger.warn("ContentService returned {} for {}: {}", connection.getResponseCode(), url, error);
 		} catch (DeserializationException | IOException e) {
-			e.printStackTrace();
+			logger.warn("Could not query ContentService {}: {}", address, e.getMessage());
+			// broken connections must not be reused
+			if (connection != null) connection.disconnect();
 		}
 		return null;
 	}
 
+	/**
+	 * Removes the expired responses. If all of them are valid, the cache is
+	 * emptied.
+	 */
+	private static void purge() {
+		final long now = System.currentTimeMillis();
+		CACHE.values().removeIf(response -> response.expires <= now);
+		if (CACHE.size() >= MAX_CACHE_SIZE) CACHE.clear();
+	}
+
 	private static <T> T getObject(TypeReference<List<ContentServiceResponse>> cls, String json) throws DeserializationException {
 		try {
 			return mapper.readValue(json, cls);
@@ -60,4 +207,13 @@ public class ContentServiceClient {
 		}
 	}
 
+	private static class CachedResponse {
+		private final long expires;
+		private final List<ContentServiceResponse> responses;
+
+		CachedResponse(long expires, List<ContentServiceResponse> responses) {
+			this.expires = expires;
+			this.responses = responses;
+		}
+	}
 }
@@ -0,0 +1,122 @@
+package org.reactome.server.tools.diagram.exporter.pptx.model;
+
+import org.reactome.server.tools.diagram.data.profile.diagram.DiagramProfile;
+import org.reactome.server.tools.diagram.data.profile.diagram.DiagramProfileNode;
+import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorFactory;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Colors and line width of a type of node or edge in a DiagramProfile, parsed
+ * once. All the types of a profile are parsed the first time it is used and
+ * shared by every {@link Stylesheet} built from it, so stylesheets only copy
+ * them.
+ */
+class ProfileStyle {
+
+    private static final List<String> TYPES = Arrays.asList("attachment", "chemical", "compartment", "complex",
+            "entity", "entityset", "flowline", "gene", "interactor", "link", "note", "otherentity", "processnode",
+            "protein", "reaction", "rna", "stoichiometry", "encapsulatednode");
+    // profiles are cached by the ResourcesFactory, so there are only a few
+    private static final Map<DiagramProfile, Map<String, ProfileStyle>> STYLES = new ConcurrentHashMap<>();
+
+    final double lineWidth;
+    final Color lineColor;
+    final Color fillColor;
+    final Color textColor;
+    final Color fadeOutStroke;
+    final Color fadeOutFill;
+    final Color fadeOutText;
+    final Color lighterStroke;
+    final Color lighterFill;
+    final Color lighterText;
+    final Color diseaseColor;
+    final Color flagColor;
+    final Color selectionColor;
+
+    private ProfileStyle(DiagramProfile profile, DiagramProfileNode node) {
+        this.lineWidth = node.getLineWidth() != null ? Double.valueOf(node.getLineWidth()) * 2 : 1;
+        this.lineColor = ColorFactory.parseColor(node.getStroke());
+        this.fillColor = ColorFactory.parseColor(node.getFill());
+        this.textColor = ColorFactory.parseColor(node.getText());
+        this.fadeOutStroke = ColorFactory.parseColor(node.getFadeOutStroke());
+        this.fadeOutFill = ColorFactory.parseColor(node.getFadeOutFill());
+        this.fadeOutText = ColorFactory.parseColor(node.getFadeOutText());
+        this.lighterStroke = ColorFactory.parseColor(node.getLighterStroke());
+        this.lighterFill = ColorFactory.parseColor(node.getLighterFill());
+        this.lighterText = ColorFactory.parseColor(node.getLighterText());
+        this.diseaseColor = ColorFactory.parseColor(profile.getProperties().getDisease());
+        this.flagColor = ColorFactory.parseColor(profile.getProperties().getFlag());
+        this.selectionColor = ColorFactory.parseColor(profile.getProperties().getSelection());
+    }
+
+    /**
+     * @param type case insensitive type of the object, such as complex or
+     *             reaction
+     * @throws IllegalArgumentException if profile has no style for type
+     */
+    static ProfileStyle get(DiagramProfile profile, String type) {
+        final ProfileStyle style = STYLES.computeIfAbsent(profile, ProfileStyle::parse).get(type.toLowerCase());
+        if (style == null)
+            throw new IllegalArgumentException("Type " + type + " is not found in the JSON Profile.");
+        return style;
+    }
+
+    private static Map<String, ProfileStyle> parse(DiagramProfile profile) {
+        final Map<String, ProfileStyle> styles = new HashMap<>();
+        for (String type : TYPES) {
+            final DiagramProfileNode node = getProfileNode(profile, type);
+            if (node != null) styles.put(type, new ProfileStyle(profile, node));
+        }
+        return Collections.unmodifiableMap(styles);
+    }
+
+    private static DiagramProfileNode getProfileNode(DiagramProfile profile, String type) {
+        switch (type) {
+            case "attachment":
+                return profile.getAttachment();
+            case "chemical":
+                return profile.getChemical();
+            case "compartment":
+                return profile.getCompartment();
+            case "complex":
+                return profile.getComplex();
+            case "entity":
+                return profile.getEntity();
+            case "entityset":
+                return profile.getEntityset();
+            case "flowline":
+                return profile.getFlowline();
+            case "gene":
+                return profile.getGene();
+            case "interactor":
+                return profile.getInteractor();
+            case "link":
+                return profile.getLink();
+            case "note":
+                return profile.getNote();
+            case "otherentity":
+                return profile.getOtherentity();
+            case "processnode":
+                return profile.getProcessnode();
+            case "protein":
+                return profile.getProtein();
+            case "reaction":
+                return profile.getReaction();
+            case "rna":
+                return profile.getRna();
+            case "stoichiometry":
+                return profile.getStoichiometry();
+            case "encapsulatednode":
+                return profile.getEncapsulatednode();
+            default:
+                return null;
+        }
+    }
+}
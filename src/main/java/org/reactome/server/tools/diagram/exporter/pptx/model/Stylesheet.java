@@ -5,11 +5,8 @@ import com.aspose.slides.LineArrowheadStyle;
 import com.aspose.slides.LineArrowheadWidth;
 import com.aspose.slides.LineCapStyle;
 import org.reactome.server.tools.diagram.data.profile.diagram.DiagramProfile;
-import org.reactome.server.tools.diagram.data.profile.diagram.DiagramProfileNode;
 
 import java.awt.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author Guilherme S Viteri <gviteri@ebi.ac.uk>
@@ -48,58 +45,33 @@ public class Stylesheet {
 
     }
 
+    /**
+     * Copies the style of type in profile, which is parsed only once.
+     */
     public Stylesheet(DiagramProfile profile, String type, byte shapeFillType, byte lineFillType, byte lineStyle) {
-        DiagramProfileNode profileInfo = getProfileNode(profile, type);
-        this.lineWidth = profileInfo.getLineWidth() != null ? Double.valueOf(profileInfo.getLineWidth()) * 2 : 1;
-        this.lineColor = parseColor(profileInfo.getStroke());
-        this.fillColor = parseColor(profileInfo.getFill());
-        this.textColor = parseColor(profileInfo.getText());
-        this.fadeOutStroke = parseColor(profileInfo.getFadeOutStroke());
-        this.fadeOutFill = parseColor(profileInfo.getFadeOutFill());
-        this.fadeOutText = parseColor(profileInfo.getFadeOutText());
-        this.lighterStroke = parseColor(profileInfo.getLighterStroke());
-        this.lighterFill = parseColor(profileInfo.getLighterFill());
-        this.lighterText = parseColor(profileInfo.getLighterText());
+        final ProfileStyle style = ProfileStyle.get(profile, type);
+        this.lineWidth = style.lineWidth;
+        this.lineColor = style.lineColor;
+        this.fillColor = style.fillColor;
+        this.textColor = style.textColor;
+        this.fadeOutStroke = style.fadeOutStroke;
+        this.fadeOutFill = style.fadeOutFill;
+        this.fadeOutText = style.fadeOutText;
+        this.lighterStroke = style.lighterStroke;
+        this.lighterFill = style.lighterFill;
+        this.lighterText = style.lighterText;
         this.shapeFillType = shapeFillType;
         this.lineFillType = lineFillType;
         this.lineStyle = lineStyle;
-        this.diseaseColor = parseColor(profile.getProperties().getDisease());
-        this.flagColor = parseColor(profile.getProperties().getFlag());
-        this.selectionColor = parseColor(profile.getProperties().getSelection());
+        this.diseaseColor = style.diseaseColor;
+        this.flagColor = style.flagColor;
+        this.selectionColor = style.selectionColor;
     }
 
     public Stylesheet(DiagramProfile profile, String type) {
         this(profile, type, (byte) 0, (byte) 0, (byte) 0);
     }
 
-    private static Color parseColor(String color) {
-        if (color == null) return null;
-
-        if (color.startsWith("#")) {
-            return hexToColor(color);
-        }
-        return rgbaToColor(color);
-    }
-
-    private static Color hexToColor(String input) {
-        int r = Integer.valueOf(input.substring(1, 3), 16);
-        int g = Integer.valueOf(input.substring(3, 5), 16);
-        int b = Integer.valueOf(input.substring(5, 7), 16);
-
-        return new Color(r, g, b);
-    }
-
-    private static Color rgbaToColor(String input) {
-        String rgbaRegex = "^rgba\\(\\s*(0|[1-9]\\d?|1\\d\\d?|2[0-4]\\d|25[0-5])\\s*,\\s*(0|[1-9]\\d?|1\\d\\d?|2[0-4]\\d|25[0-5])\\s*,\\s*(0|[1-9]\\d?|1\\d\\d?|2[0-4]\\d|25[0-5])\\s*,\\s*((0.[1-9])|[01])\\s*\\)$";
-
-        Pattern c = Pattern.compile(rgbaRegex);
-        Matcher m = c.matcher(input);
-        if (m.matches()) {
-            return new Color(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)), (int) (Float.parseFloat(m.group(4)) * 255f));
-        }
-        return null;
-    }
-
     /**
      * Apply custom style.
      * Mainly used in the connector or in the auxiliary shapes.
@@ -260,47 +232,4 @@ public class Stylesheet {
     public double getSelectionLineWidth() {
         return selectionLineWidth;
     }
-
-    private DiagramProfileNode getProfileNode(DiagramProfile profile, String type){
-        switch (type.toLowerCase()){
-            case "attachment":
-                return profile.getAttachment();
-            case "chemical":
-                return profile.getChemical();
-            case "compartment":
-                return profile.getCompartment();
-            case "complex":
-                return profile.getComplex();
-            case "entity":
-                return profile.getEntity();
-            case "entityset":
-                return profile.getEntityset();
-            case "flowline":
-                return profile.getFlowline();
-            case "gene":
-                return profile.getGene();
-            case "interactor":
-                return profile.getInteractor();
-            case "link":
-                return profile.getLink();
-            case "note":
-                return profile.getNote();
-            case "otherentity":
-                return profile.getOtherentity();
-            case "processnode":
-                return profile.getProcessnode();
-            case "protein":
-                return profile.getProtein();
-            case "reaction":
-                return profile.getReaction();
-            case "rna":
-                return profile.getRna();
-            case "stoichiometry":
-                return profile.getStoichiometry();
-            case "encapsulatednode":
-                return profile.getEncapsulatednode();
-            default:
-                throw new IllegalArgumentException("Type " + type + " is not found in the JSON Profile.");
-        }
-    }
 }
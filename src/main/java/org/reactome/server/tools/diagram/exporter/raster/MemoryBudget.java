@@ -0,0 +1,119 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+/**
+ * Limits the amount of memory used by concurrent renders. Before rendering,
+ * each export reserves the memory its rasters are expected to need and
+ * releases it when finished. When there is not enough memory left, the
+ * export waits up to timeout milliseconds for other exports to finish, and
+ * then fails with a {@link MemoryBudgetException}.
+ * <p>
+ * An export larger than the whole budget fails immediately.
+ */
+public class MemoryBudget {
+
+	private long capacity;
+	private long timeout;
+	private long used;
+
+	/**
+	 * @param capacity amount of bytes that can be reserved at the same time
+	 * @param timeout  max amount of milliseconds to wait for memory. 0 to fail
+	 *                 fast
+	 */
+	public MemoryBudget(long capacity, long timeout) {
+		this.capacity = capacity;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Reserves bytes from the budget, waiting for other reservations to be
+	 * closed if necessary. Use it in a try-with-resources block.
+	 *
+	 * @param bytes amount of bytes to reserve
+	 *
+	 * @throws MemoryBudgetException if bytes is larger than the capacity, or
+	 *                               if there is still no room for bytes after
+	 *                               waiting timeout milliseconds
+	 */
+	public synchronized Reservation reserve(long bytes) {
+		if (bytes > capacity)
+			throw new MemoryBudgetException(String.format(
+					"Image needs %s, but only %s are available for rendering", mb(bytes), mb(capacity)));
+		final long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (used + bytes > capacity) {
+			if (remaining <= 0)
+				throw new MemoryBudgetException(String.format(
+						"Not enough memory to render image now: needs %s, %s of %s in use. Try again later",
+						mb(bytes), mb(used), mb(capacity)));
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MemoryBudgetException("Interrupted while waiting for memory");
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+		used += bytes;
+		return new Reservation(bytes);
+	}
+
+	private synchronized void release(long bytes) {
+		used -= bytes;
+		notifyAll();
+	}
+
+	public synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Changes the capacity. Current reservations are kept, even if they exceed
+	 * the new capacity.
+	 */
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = capacity;
+		notifyAll();
+	}
+
+	public synchronized long getTimeout() {
+		return timeout;
+	}
+
+	public synchronized void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return the amount of bytes currently reserved
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+
+	private static String mb(long bytes) {
+		return String.format("%.1fMB", bytes / 1048576.0);
+	}
+
+	/**
+	 * Memory taken from the budget. Closing it returns the memory.
+	 */
+	public class Reservation implements AutoCloseable {
+
+		private final long bytes;
+		private boolean closed;
+
+		private Reservation(long bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public void close() {
+			synchronized (MemoryBudget.this) {
+				if (closed) return;
+				closed = true;
+				release(bytes);
+			}
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+/**
+ * Thrown when there is not enough memory in the {@link MemoryBudget} to
+ * render an image.
+ */
+public class MemoryBudgetException extends RuntimeException {
+	public MemoryBudgetException(String message) {
+		super(message);
+	}
+}
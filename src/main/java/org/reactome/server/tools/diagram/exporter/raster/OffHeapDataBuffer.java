@@ -0,0 +1,190 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DataBuffer of ints stored outside the Java heap, either in direct memory or
+ * in a memory mapped file. Images using it do not put any pressure on the heap
+ * or the garbage collector, at the cost of slower pixel access, so they are
+ * better filled in bulk with {@link #put(int, int[], int, int)} than painted
+ * with a Graphics2D.
+ * <p>
+ * Buffers in direct memory take their bytes from a {@link MemoryBudget}, see
+ * {@link #getDirectMemoryBudget()}, until they are released with {@link
+ * #release()} or garbage collected.
+ */
+public class OffHeapDataBuffer extends DataBuffer {
+
+	/**
+	 * By default, as much as -XX:MaxDirectMemorySize, waiting up to 30 seconds
+	 */
+	private static final MemoryBudget DIRECT_BUDGET = new MemoryBudget(getMaxDirectMemory(), 30_000);
+	private static final ReferenceQueue<OffHeapDataBuffer> COLLECTED = new ReferenceQueue<>();
+	/** Keeps the trackers reachable until their buffers are collected */
+	private static final Set<Tracker> TRACKERS = ConcurrentHashMap.newKeySet();
+
+	static {
+		final Thread thread = new Thread(() -> {
+			while (true) {
+				try {
+					((Tracker) COLLECTED.remove()).release();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "off-heap-release");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private final IntBuffer data;
+	private final Tracker tracker;
+
+	private OffHeapDataBuffer(IntBuffer data, int size, MemoryBudget.Reservation reservation) {
+		super(TYPE_INT, size);
+		this.data = data;
+		this.tracker = reservation == null ? null : new Tracker(this, reservation);
+	}
+
+	/**
+	 * Creates a buffer of size ints in direct memory, reserving its bytes
+	 * from the direct memory budget.
+	 *
+	 * @throws MemoryBudgetException if there is not enough direct memory in
+	 *                               the budget
+	 */
+	public static OffHeapDataBuffer allocate(int size) {
+		final MemoryBudget.Reservation reservation = DIRECT_BUDGET.reserve(4L * size);
+		try {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder());
+			return new OffHeapDataBuffer(buffer.asIntBuffer(), size, reservation);
+		} catch (OutOfMemoryError e) {
+			reservation.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates a buffer of size ints mapped to file. The file is created or
+	 * resized if necessary. The mapping remains valid until the buffer is
+	 * garbage collected.
+	 */
+	public static OffHeapDataBuffer map(File file, int size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		     FileChannel channel = raf.getChannel()) {
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4L * size).order(ByteOrder.nativeOrder());
+			return new OffHeapDataBuffer(buffer.asIntBuffer(), size, null);
+		}
+	}
+
+	/**
+	 * The budget that limits the direct memory of all the buffers created by
+	 * {@link #allocate(int)}. Use it to change the capacity or the timeout.
+	 */
+	public static MemoryBudget getDirectMemoryBudget() {
+		return DIRECT_BUDGET;
+	}
+
+	/**
+	 * Returns the direct memory of this buffer to the budget. The buffer must
+	 * not be used after this call. Buffers not released return their memory
+	 * when they are garbage collected.
+	 */
+	public void release() {
+		if (tracker != null) tracker.release();
+	}
+
+	/**
+	 * The value of -XX:MaxDirectMemorySize or, if not set, the max heap size,
+	 * which is the default of the JVM.
+	 */
+	private static long getMaxDirectMemory() {
+		for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+			if (!argument.startsWith("-XX:MaxDirectMemorySize=")) continue;
+			final String value = argument.substring("-XX:MaxDirectMemorySize=".length()).toLowerCase();
+			final char unit = value.isEmpty() ? ' ' : value.charAt(value.length() - 1);
+			final int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : unit == 't' ? 40 : 0;
+			try {
+				return Long.parseLong(shift == 0 ? value : value.substring(0, value.length() - 1)) << shift;
+			} catch (NumberFormatException ignored) {
+				// use the default
+			}
+		}
+		return Runtime.getRuntime().maxMemory();
+	}
+
+	/**
+	 * Creates a BufferedImage whose pixels are stored in buffer, with the
+	 * same pixel layout as TYPE_INT_RGB or TYPE_INT_ARGB. The image type will
+	 * be TYPE_CUSTOM.
+	 *
+	 * @param type BufferedImage.TYPE_INT_RGB or BufferedImage.TYPE_INT_ARGB
+	 */
+	public static BufferedImage createImage(int width, int height, int type, OffHeapDataBuffer buffer) {
+		if (buffer.getSize() < width * height)
+			throw new IllegalArgumentException("buffer is smaller than " + width + "x" + height);
+		final ColorModel colorModel;
+		if (type == BufferedImage.TYPE_INT_ARGB)
+			colorModel = ColorModel.getRGBdefault();
+		else if (type == BufferedImage.TYPE_INT_RGB)
+			colorModel = new DirectColorModel(24, 0xff0000, 0xff00, 0xff, 0);
+		else
+			throw new IllegalArgumentException("Only TYPE_INT_RGB and TYPE_INT_ARGB are supported");
+		final SampleModel sampleModel = colorModel.createCompatibleSampleModel(width, height);
+		final WritableRaster raster = Raster.createWritableRaster(sampleModel, buffer, new Point());
+		return new BufferedImage(colorModel, raster, false, null);
+	}
+
+	@Override
+	public int getElem(int bank, int i) {
+		return data.get(i + offsets[bank]);
+	}
+
+	@Override
+	public void setElem(int bank, int i, int val) {
+		data.put(i + offsets[bank], val);
+	}
+
+	/**
+	 * Copies length ints from src, starting at offset, into this buffer,
+	 * starting at index.
+	 */
+	public void put(int index, int[] src, int offset, int length) {
+		final IntBuffer duplicate = data.duplicate();
+		duplicate.position(index);
+		duplicate.put(src, offset, length);
+	}
+
+	/**
+	 * Releases the reservation of a buffer, explicitly or when the buffer is
+	 * collected
+	 */
+	private static class Tracker extends PhantomReference<OffHeapDataBuffer> {
+
+		private final MemoryBudget.Reservation reservation;
+
+		Tracker(OffHeapDataBuffer buffer, MemoryBudget.Reservation reservation) {
+			super(buffer, COLLECTED);
+			this.reservation = reservation;
+			TRACKERS.add(this);
+		}
+
+		void release() {
+			reservation.close();
+			TRACKERS.remove(this);
+		}
+	}
+}
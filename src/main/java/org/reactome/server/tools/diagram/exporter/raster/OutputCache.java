@@ -0,0 +1,253 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two level cache of encoded images. The first level keeps the most recently
+ * used outputs in memory, up to a max amount of bytes. The second, optional,
+ * level stores every output in a directory, up to a larger amount of bytes,
+ * so they survive restarts. Files are written into a temporary file and then
+ * renamed, so readers never see partial outputs.
+ * <p>
+ * Keys must identify the output completely. See {@link #hash(File...)} to
+ * include the content of the source files.
+ */
+public class OutputCache {
+
+	private static final Logger logger = LoggerFactory.getLogger("infoLogger");
+	private static final Map<File, FileHash> FILE_HASHES = new ConcurrentHashMap<>();
+
+	private final long maxMemory;
+	private final File directory;
+	private final long maxDisk;
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+	private long memorySize;
+	private final AtomicLong diskSize = new AtomicLong();
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a cache only in memory.
+	 *
+	 * @param maxMemory max amount of bytes kept in memory
+	 */
+	public OutputCache(long maxMemory) {
+		this(maxMemory, null, 0);
+	}
+
+	/**
+	 * @param maxMemory max amount of bytes kept in memory
+	 * @param directory where to store the outputs. It is created if it does
+	 *                  not exist. Temporary files left in it are deleted
+	 * @param maxDisk   max amount of bytes kept in directory
+	 */
+	public OutputCache(long maxMemory, File directory, long maxDisk) {
+		this.maxMemory = maxMemory;
+		this.directory = directory;
+		this.maxDisk = maxDisk;
+		if (directory != null) {
+			if (!directory.exists() && !directory.mkdirs())
+				throw new IllegalArgumentException("Cannot create cache directory " + directory);
+			final File[] files = directory.listFiles(File::isFile);
+			if (files != null) for (File file : files) {
+				// left by a previous process that stopped while writing
+				if (file.getName().endsWith(".tmp")) {
+					if (!file.delete()) logger.warn("Could not delete temporary file {}", file);
+				} else diskSize.addAndGet(file.length());
+			}
+		}
+	}
+
+	/**
+	 * @return the output stored with key, or null if it is not in the cache
+	 */
+	public byte[] get(String key) {
+		final byte[] cached = getFromMemory(key);
+		if (cached != null) return cached;
+		if (directory != null) {
+			final File file = toFile(key);
+			try {
+				final byte[] bytes = Files.readAllBytes(file.toPath());
+				touch(file);
+				putInMemory(key, bytes);
+				diskHits.incrementAndGet();
+				return bytes;
+			} catch (NoSuchFileException ignored) {
+				// not cached
+			} catch (IOException e) {
+				logger.warn("Could not read cached output {}", file, e);
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @return the output stored with key in memory, or null if it is not in
+	 * the memory level
+	 */
+	public byte[] getFromMemory(String key) {
+		synchronized (memory) {
+			final byte[] bytes = memory.get(key);
+			if (bytes != null) memoryHits.incrementAndGet();
+			return bytes;
+		}
+	}
+
+	/**
+	 * Use this method to send the output without loading it into the heap,
+	 * see {@link RasterOutput#transfer(File, java.nio.channels.WritableByteChannel)}.
+	 * The file may be evicted at any moment, so be ready for a {@link
+	 * NoSuchFileException} when opening it.
+	 *
+	 * @return the file with the output stored with key, or null if it is not
+	 * in the disk level
+	 */
+	public File getFile(String key) {
+		final File file = directory == null ? null : toFile(key);
+		if (file == null || !file.isFile()) {
+			misses.incrementAndGet();
+			return null;
+		}
+		touch(file);
+		diskHits.incrementAndGet();
+		return file;
+	}
+
+	/**
+	 * Recently used files are the last to be evicted
+	 */
+	private void touch(File file) {
+		if (!file.setLastModified(System.currentTimeMillis()))
+			logger.debug("Could not update last modification time of {}", file);
+	}
+
+	/**
+	 * Stores bytes in memory and, if configured, in disk.
+	 */
+	public void put(String key, byte[] bytes) {
+		putInMemory(key, bytes);
+		if (directory != null && bytes.length <= maxDisk) putInDisk(key, bytes);
+	}
+
+	private void putInMemory(String key, byte[] bytes) {
+		if (bytes.length > maxMemory) return;
+		synchronized (memory) {
+			final byte[] old = memory.put(key, bytes);
+			if (old != null) memorySize -= old.length;
+			memorySize += bytes.length;
+			final Iterator<byte[]> iterator = memory.values().iterator();
+			while (memorySize > maxMemory && iterator.hasNext()) {
+				memorySize -= iterator.next().length;
+				iterator.remove();
+			}
+		}
+	}
+
+	private void putInDisk(String key, byte[] bytes) {
+		final File file = toFile(key);
+		try {
+			final Path temp = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+			try {
+				Files.write(temp, bytes);
+				final long old = file.length();
+				Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				if (diskSize.addAndGet(bytes.length - old) > maxDisk) evict();
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			logger.warn("Could not cache output {}", file, e);
+		}
+	}
+
+	/**
+	 * Removes the least recently used files until the disk level is below
+	 * 90% of its max size.
+	 */
+	private synchronized void evict() {
+		if (diskSize.get() <= maxDisk) return;
+		final File[] files = directory.listFiles(file -> file.isFile() && !file.getName().endsWith(".tmp"));
+		if (files == null) return;
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (diskSize.get() <= 0.9 * maxDisk) break;
+			final long length = file.length();
+			if (file.delete()) diskSize.addAndGet(-length);
+		}
+	}
+
+	private File toFile(String key) {
+		return new File(directory, sha256(key.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Computes a hash of the content of files, to be included in the keys, so
+	 * outputs are not reused when their sources change. Hashes are cached
+	 * while the length and last modification time of the files do not change.
+	 *
+	 * @throws IOException if any of the files cannot be read
+	 */
+	public static String hash(File... files) throws IOException {
+		final StringJoiner joiner = new StringJoiner(",");
+		for (File file : files) {
+			final long lastModified = file.lastModified();
+			final long length = file.length();
+			FileHash hash = FILE_HASHES.get(file);
+			if (hash == null || hash.lastModified != lastModified || hash.length != length) {
+				hash = new FileHash(lastModified, length, sha256(Files.readAllBytes(file.toPath())));
+				FILE_HASHES.put(file, hash);
+			}
+			joiner.add(hash.hash);
+		}
+		return joiner.toString();
+	}
+
+	private static String sha256(byte[] bytes) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+			final StringBuilder builder = new StringBuilder();
+			for (byte b : digest) builder.append(String.format("%02x", b));
+			return builder.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256 is available in every JVM
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class FileHash {
+		private final long lastModified;
+		private final long length;
+		private final String hash;
+
+		FileHash(long lastModified, long length, String hash) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.hash = hash;
+		}
+	}
+}
@@ -16,12 +16,20 @@ import org.springframework.stereotype.Component;
 import org.w3c.dom.svg.SVGDocument;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author Lorente-Arencibia, Pascual (pasculorente@gmail.com)
@@ -29,10 +37,27 @@ import java.util.TreeSet;
 @Component
 public class RasterExporter {
 
+	/**
+	 * Shared by every exporter. By default, renders can take up to the max
+	 * heap size at the same time, and wait up to 30 seconds for memory. Only
+	 * heap is counted, so very large diagrams, rendered off heap, are charged
+	 * just the strip used to paint them. Their pixels are charged to {@link
+	 * #getDirectMemoryBudget()}.
+	 */
+	private static final MemoryBudget BUDGET = new MemoryBudget(Runtime.getRuntime().maxMemory(), 30_000);
+	/**
+	 * Fires the timeouts of the asynchronous exports
+	 */
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(daemon("raster-export-timer"));
+
 	private final String diagramPath;
 	private final String ehldPath;
 	private final Set<String> ehld;
 	private final TokenUtils tokenUtils;
+	private final SingleFlight<String, byte[]> encoded = new SingleFlight<>();
+	private ExecutorService executor;
+	private volatile long asyncTimeout = 120_000;
+	private volatile OutputCache cache = new OutputCache(64L << 20);
 
 	/**
 	 * Configures a new RasterExporter setting the resources paths.
@@ -53,11 +78,27 @@ public class RasterExporter {
 			ehld = new HashSet<>();
 		}
 		this.ehld = ehld;
+		setAsyncExecutor(Runtime.getRuntime().availableProcessors(), 100);
 	}
 
 	/**
 	 * Renders args as a BufferedImage. See {@link RasterOutput} for saving
 	 * options.
+	 * <p>
+	 * The heap memory of the image is taken from the {@link
+	 * #getMemoryBudget()} only while it is rendered. Very large images are
+	 * stored off heap, and their memory is taken from the {@link
+	 * #getDirectMemoryBudget()} until they are released to the {@link
+	 * RasterPool} or garbage collected, so callers should release them as
+	 * soon as possible.
+	 * <p>
+	 * Diagrams larger than 25 Mpixels are returned as {@link
+	 * BufferedImage#TYPE_CUSTOM} images backed by an {@link
+	 * OffHeapDataBuffer}: pixels in direct memory up to 50 Mpixels, and in a
+	 * memory mapped temp file above. They use the same int RGB or ARGB
+	 * layout, so ImageIO and {@link RasterOutput} can write them, but drawing
+	 * on them is slow. Use {@link BufferedImage#getData()} if a standard
+	 * raster is needed.
 	 *
 	 * @param args image arguments
 	 */
@@ -68,14 +109,101 @@ public class RasterExporter {
 	/**
 	 * Renders args as a BufferedImage. See {@link RasterOutput} for saving
 	 * options.
+	 * <p>
+	 * The heap memory of the image is taken from the {@link
+	 * #getMemoryBudget()} only while it is rendered. Very large images are
+	 * stored off heap, and their memory is taken from the {@link
+	 * #getDirectMemoryBudget()} until they are released to the {@link
+	 * RasterPool} or garbage collected, so callers should release them as
+	 * soon as possible.
+	 * <p>
+	 * Diagrams larger than 25 Mpixels are returned as {@link
+	 * BufferedImage#TYPE_CUSTOM} images backed by an {@link
+	 * OffHeapDataBuffer}: pixels in direct memory up to 50 Mpixels, and in a
+	 * memory mapped temp file above. They use the same int RGB or ARGB
+	 * layout, so ImageIO and {@link RasterOutput} can write them, but drawing
+	 * on them is slow. Use {@link BufferedImage#getData()} if a standard
+	 * raster is needed.
+	 * <p>
+	 * Every call renders its own image, so the caller is free to modify it.
 	 *
 	 * @param args image arguments
 	 */
 	public BufferedImage export(RasterArgs args, AnalysisStoredResult result) throws AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
 		final RasterRenderer renderer = getRenderer(args, result);
-//		final Dimension dimension = renderer.getDimension();
-//		double size = dimension.getHeight() * dimension.getWidth();
-		return renderer.render();
+		try (MemoryBudget.Reservation ignored = BUDGET.reserve(renderer.getMemoryEstimate(false))) {
+			return renderer.render();
+		}
+	}
+
+	/**
+	 * Renders args and writes the image into os, using args.getFormat(). os is
+	 * not closed. As the image does not leave the exporter, its pixels are
+	 * returned to the {@link RasterPool} to be reused by the next renders.
+	 * svg and svgz formats are written while they are rendered, as in {@link
+	 * #exportToSvgStream(RasterArgs, OutputStream)}.
+	 *
+	 * @param args image arguments
+	 * @param os   where to write the image
+	 */
+	public void exportToStream(RasterArgs args, OutputStream os) throws IOException, AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
+		exportToStream(args, os, null);
+	}
+
+	/**
+	 * Renders args and writes the image into os, using args.getFormat(). os is
+	 * not closed. As the image does not leave the exporter, its pixels are
+	 * returned to the {@link RasterPool} to be reused by the next renders.
+	 * svg and svgz formats are written while they are rendered, as in {@link
+	 * #exportToSvgStream(RasterArgs, OutputStream)}.
+	 * <p>
+	 * When result is null, concurrent exports with the same args share a
+	 * single render and encoding, and the output is kept in the {@link
+	 * OutputCache}. The shared output is encoded in memory and then written
+	 * into os of each export, so a slow or broken os does not affect the
+	 * rest. Plain svg is not cached nor shared, so it is written while it is
+	 * rendered and never held in memory.
+	 *
+	 * @param args image arguments
+	 * @param os   where to write the image
+	 */
+	public void exportToStream(RasterArgs args, OutputStream os, AnalysisStoredResult result) throws IOException, AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
+		if (result != null || "svg".equalsIgnoreCase(args.getFormat())) renderToStream(args, os, result);
+		else deliver(args, args.getCanonicalKey(), os, null, output -> renderToStream(args, output, null));
+	}
+
+	/**
+	 * Renders args and writes the image into channel, using args.getFormat().
+	 * channel is not closed. Concurrent exports with the same args share a
+	 * single render and encoding, as in {@link #exportToStream(RasterArgs,
+	 * OutputStream, AnalysisStoredResult)}. When the output is in the disk
+	 * level of the {@link OutputCache}, it is sent with {@link
+	 * RasterOutput#transfer(File, WritableByteChannel)}, so it is not copied
+	 * through the heap.
+	 *
+	 * @param args    image arguments
+	 * @param channel where to write the image
+	 */
+	public void exportToChannel(RasterArgs args, WritableByteChannel channel) throws IOException, AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
+		final OutputStream os = Channels.newOutputStream(channel);
+		if ("svg".equalsIgnoreCase(args.getFormat())) renderToStream(args, os, null);
+		else deliver(args, args.getCanonicalKey(), os, channel, output -> renderToStream(args, output, null));
+	}
+
+	private void renderToStream(RasterArgs args, OutputStream os, AnalysisStoredResult result) throws IOException, AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
+		final RasterRenderer renderer = getRenderer(args, result);
+		if (isSvg(args.getFormat())) {
+			renderToSvg(renderer, args.getFormat(), os);
+			return;
+		}
+		try (MemoryBudget.Reservation ignored = BUDGET.reserve(renderer.getMemoryEstimate(false))) {
+			final BufferedImage image = renderer.render();
+			try {
+				RasterOutput.save(image, args.getFormat(), os, false);
+			} finally {
+				RasterPool.release(image);
+			}
+		}
 	}
 
 	/**
@@ -93,10 +221,20 @@ public class RasterExporter {
 	 * token. args.getColumn() is ignored. Animated GIFs must be written
 	 * directly into an <code>{@link OutputStream}</code>. There is no Java
 	 * class that supports storing a GIF in memory.
+	 * <p>
+	 * When result is null, concurrent exports with the same args share a
+	 * single GIF, and the GIF is kept in the {@link OutputCache}.
 	 */
 	public void exportToGif(RasterArgs args, OutputStream os, AnalysisStoredResult result) throws AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException, IOException {
+		if (result != null) renderToGif(args, os, result);
+		else deliver(args, args.getAnimatedKey(), os, null, output -> renderToGif(args, output, null));
+	}
+
+	private void renderToGif(RasterArgs args, OutputStream os, AnalysisStoredResult result) throws AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException, IOException {
 		final RasterRenderer renderer = getRenderer(args, result);
-		renderer.renderToAnimatedGif(os);
+		try (MemoryBudget.Reservation ignored = BUDGET.reserve(renderer.getMemoryEstimate(true))) {
+			renderer.renderToAnimatedGif(os);
+		}
 	}
 
 	/**
@@ -116,6 +254,284 @@ public class RasterExporter {
 		return renderer.renderToSvg();
 	}
 
+	/**
+	 * Renders args as SVG and writes it into os, which is not closed. Standard
+	 * diagrams are written while they are rendered, without building an
+	 * SVGDocument. If args.getFormat() is svgz, the SVG is compressed with
+	 * gzip.
+	 */
+	public void exportToSvgStream(RasterArgs args, OutputStream os) throws IOException, AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
+		exportToSvgStream(args, os, null);
+	}
+
+	/**
+	 * Renders args as SVG and writes it into os, which is not closed. Standard
+	 * diagrams are written while they are rendered, without building an
+	 * SVGDocument. If args.getFormat() is svgz, the SVG is compressed with
+	 * gzip.
+	 */
+	public void exportToSvgStream(RasterArgs args, OutputStream os, AnalysisStoredResult result) throws IOException, AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
+		final RasterRenderer renderer = getRenderer(args, result);
+		renderToSvg(renderer, args.getFormat(), os);
+	}
+
+	private static boolean isSvg(String format) {
+		return "svg".equalsIgnoreCase(format) || "svgz".equalsIgnoreCase(format);
+	}
+
+	/**
+	 * svgz is compressed while it is written, so the uncompressed SVG is
+	 * never stored
+	 */
+	private static void renderToSvg(RasterRenderer renderer, String format, OutputStream os) throws IOException {
+		if ("svgz".equalsIgnoreCase(format)) {
+			final GZIPOutputStream gzip = new GZIPOutputStream(os, RasterOutput.GZIP_BUFFER);
+			renderer.renderToSvg(gzip);
+			gzip.finish();
+		} else renderer.renderToSvg(os);
+	}
+
+	/**
+	 * Same as {@link #export(RasterArgs, AnalysisStoredResult)}, but the
+	 * render runs in the asynchronous executor. See {@link #submit(Export)}
+	 * for errors, timeouts and cancellation.
+	 */
+	public CompletableFuture<BufferedImage> exportAsync(RasterArgs args) {
+		return exportAsync(args, null);
+	}
+
+	/**
+	 * Same as {@link #export(RasterArgs, AnalysisStoredResult)}, but the
+	 * render runs in the asynchronous executor. See {@link #submit(Export)}
+	 * for errors, timeouts and cancellation.
+	 */
+	public CompletableFuture<BufferedImage> exportAsync(RasterArgs args, AnalysisStoredResult result) {
+		return submit(() -> export(args, result));
+	}
+
+	/**
+	 * Same as {@link #exportToStream(RasterArgs, OutputStream,
+	 * AnalysisStoredResult)}, but the render runs in the asynchronous
+	 * executor. See {@link #submit(Export)} for errors, timeouts and
+	 * cancellation.
+	 */
+	public CompletableFuture<Void> exportToStreamAsync(RasterArgs args, OutputStream os, AnalysisStoredResult result) {
+		return submit(() -> {
+			exportToStream(args, os, result);
+			return null;
+		});
+	}
+
+	/**
+	 * Same as {@link #exportToGif(RasterArgs, OutputStream,
+	 * AnalysisStoredResult)}, but the render runs in the asynchronous
+	 * executor. See {@link #submit(Export)} for errors, timeouts and
+	 * cancellation.
+	 */
+	public CompletableFuture<Void> exportToGifAsync(RasterArgs args, OutputStream os, AnalysisStoredResult result) {
+		return submit(() -> {
+			exportToGif(args, os, result);
+			return null;
+		});
+	}
+
+	/**
+	 * Same as {@link #exportToSvg(RasterArgs, AnalysisStoredResult)}, but the
+	 * render runs in the asynchronous executor. See {@link #submit(Export)}
+	 * for errors, timeouts and cancellation.
+	 */
+	public CompletableFuture<SVGDocument> exportToSvgAsync(RasterArgs args, AnalysisStoredResult result) {
+		return submit(() -> exportToSvg(args, result));
+	}
+
+	/**
+	 * Sets the executor used by the asynchronous exports: at most threads
+	 * exports run at the same time and at most queueSize wait for a thread.
+	 * Exports submitted when the queue is full fail with a {@link
+	 * RejectedExecutionException}. Exports already submitted to the previous
+	 * executor are not affected.
+	 */
+	public synchronized void setAsyncExecutor(int threads, int queueSize) {
+		if (executor != null) executor.shutdown();
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize), daemon("raster-export"));
+	}
+
+	/**
+	 * Max amount of milliseconds since an asynchronous export is submitted
+	 * until it finishes, including the time in the queue. Defaults to 2
+	 * minutes.
+	 */
+	public void setAsyncTimeout(long millis) {
+		this.asyncTimeout = millis;
+	}
+
+	/**
+	 * Runs export in the asynchronous executor. The returned future completes
+	 * exceptionally with:
+	 * <ul>
+	 * <li>the exception thrown by the export</li>
+	 * <li>a RejectedExecutionException if the queue is full</li>
+	 * <li>a TimeoutException if it doesn't finish in time</li>
+	 * </ul>
+	 * When the future is cancelled or times out, the render thread is
+	 * interrupted. Renderers check it between layout phases, layers and GIF
+	 * frames, so abandoned exports stop soon.
+	 */
+	<T> CompletableFuture<T> submit(Export<T> export) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		final Future<?> task;
+		try {
+			task = getExecutor().submit(() -> {
+				// cancelled or timed out while in the queue
+				if (future.isDone()) return;
+				try {
+					future.complete(export.run());
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+		final long timeout = asyncTimeout;
+		final ScheduledFuture<?> timer = TIMER.schedule(() ->
+				future.completeExceptionally(new TimeoutException("Export not finished after " + timeout + " ms")),
+				timeout, TimeUnit.MILLISECONDS);
+		future.whenComplete((value, throwable) -> {
+			timer.cancel(false);
+			if (throwable != null) task.cancel(true);
+		});
+		return future;
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		return executor;
+	}
+
+	private static ThreadFactory daemon(String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * The budget that limits the memory used by concurrent renders of all
+	 * the RasterExporters. Use it to change the capacity or the timeout.
+	 * Exports that can't get their memory throw a {@link
+	 * MemoryBudgetException}.
+	 */
+	public static MemoryBudget getMemoryBudget() {
+		return BUDGET;
+	}
+
+	/**
+	 * The budget that limits the direct memory of the images rendered off
+	 * heap, shared by all the RasterExporters. By default, it is the max
+	 * direct memory of the JVM. See {@link OffHeapDataBuffer}.
+	 */
+	public static MemoryBudget getDirectMemoryBudget() {
+		return OffHeapDataBuffer.getDirectMemoryBudget();
+	}
+
+	/**
+	 * @return how many exports to a stream or channel received the output of
+	 * a concurrent identical export instead of rendering
+	 */
+	public long getCoalescedExports() {
+		return encoded.getCoalesced();
+	}
+
+	/**
+	 * Sets the cache of encoded outputs used by exportToStream,
+	 * exportToChannel and exportToGif. By default, outputs are cached only in
+	 * memory, up to 64MB. Use null to disable the cache.
+	 */
+	public void setOutputCache(OutputCache cache) {
+		this.cache = cache;
+	}
+
+	public OutputCache getOutputCache() {
+		return cache;
+	}
+
+	/**
+	 * Writes into os the cached output for key or, if not cached, runs encode
+	 * coalescing identical concurrent exports, and caches its output. encode
+	 * writes into memory, and os is written once it finishes, so errors of
+	 * os don't reach the coalesced exports. Outputs
+	 * cached in disk are transferred into channel when it is not null, so
+	 * channels of files and sockets receive them without a copy through the
+	 * heap. os is not wrapped in a channel: interrupting the thread while it
+	 * writes into a channel closes the channel, and with it the stream.
+	 */
+	private void deliver(RasterArgs args, String key, OutputStream os, WritableByteChannel channel, Encode encode) throws IOException, AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
+		final OutputCache cache = this.cache;
+		final String cacheKey = cache == null ? null : getCacheKey(args, key);
+		byte[] bytes = null;
+		if (cacheKey != null) {
+			bytes = cache.getFromMemory(cacheKey);
+			if (bytes == null) {
+				final File file = cache.getFile(cacheKey);
+				if (file != null) try {
+					if (channel != null) RasterOutput.transfer(file, channel);
+					else RasterOutput.transfer(file, os);
+					return;
+				} catch (NoSuchFileException ignored) {
+					// evicted in the meantime
+				}
+			}
+		}
+		if (bytes == null) bytes = coalesce(encoded, key, () -> {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			encode.run(output);
+			final byte[] data = output.toByteArray();
+			if (cacheKey != null) cache.put(cacheKey, data);
+			return data;
+		});
+		os.write(bytes);
+	}
+
+	/**
+	 * Adds to key the hash of the source files of the diagram, so outputs are
+	 * not reused after a data release. Returns null when the source files
+	 * cannot be read, so the renderer reports the proper error, and for
+	 * flagged EHLDs, whose flags depend on the graphs of every region or on
+	 * the ContentService, so they are not cached.
+	 */
+	private String getCacheKey(RasterArgs args, String key) {
+		final String stId = args.getStId();
+		final boolean isEhld = ehld.contains(stId);
+		if (isEhld && args.getFlags() != null && !args.getFlags().isEmpty()) return null;
+		final File[] sources = isEhld
+				? new File[]{new File(ehldPath, stId + ".svg")}
+				: new File[]{new File(diagramPath, stId + ".json"), new File(diagramPath, stId + ".graph.json")};
+		try {
+			return key + "|" + OutputCache.hash(sources);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Runs export, unless there is already one running with the same key. In
+	 * that case, waits for it and returns its result.
+	 */
+	private <T> T coalesce(SingleFlight<String, T> flight, String key, Export<T> export) throws IOException, AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
+		try {
+			return flight.execute(key, export);
+		} catch (IOException | AnalysisException | EhldException | DiagramJsonNotFoundException | DiagramJsonDeserializationException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			// exports don't throw other checked exceptions
+			throw new IllegalStateException(e);
+		}
+	}
+
 	/**
 	 * Creates a proper RasterRenderer depending on the type of the source
 	 * diagram (standard or enhanced).
@@ -123,7 +539,7 @@ public class RasterExporter {
 	private RasterRenderer getRenderer(RasterArgs args, AnalysisStoredResult result) throws AnalysisException, EhldException, DiagramJsonNotFoundException, DiagramJsonDeserializationException {
 		result = getResult(args.getToken(), result);
 		return ehld.contains(args.getStId())
-				? new EhldRenderer(args, ehldPath, result)
+				? new EhldRenderer(args, ehldPath, diagramPath, result)
 				: new DiagramRenderer(args, diagramPath, result);
 	}
 
@@ -142,4 +558,18 @@ public class RasterExporter {
 			throw new AnalysisException("Token not valid: " + token, e);
 		}
 	}
+
+	/**
+	 * An export that may throw any of the export exceptions.
+	 */
+	interface Export<T> {
+		T run() throws Exception;
+	}
+
+	/**
+	 * An export that writes its output into os.
+	 */
+	interface Encode {
+		void run(OutputStream os) throws Exception;
+	}
 }
@@ -10,6 +10,11 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Supporting class to output generated diagrams.
@@ -17,6 +22,8 @@ import java.net.HttpURLConnection;
 @SuppressWarnings("WeakerAccess")
 public class RasterOutput {
 
+	static final int GZIP_BUFFER = 1 << 16;
+
 	/**
 	 * Saves document into file.
 	 */
@@ -50,6 +57,20 @@ public class RasterOutput {
 		}
 	}
 
+	/**
+	 * Sends document through os compressed with gzip, as a svgz file. If close
+	 * is <em>true</em>, closes os.
+	 */
+	public static void saveSvgz(SVGDocument document, OutputStream os, boolean close) throws TranscoderException, IOException {
+		final GZIPOutputStream gzip = new GZIPOutputStream(os, GZIP_BUFFER);
+		save(document, gzip, false);
+		gzip.finish();
+		if (close) {
+			os.flush();
+			os.close();
+		}
+	}
+
 	/**
 	 * Shortcut for <code>save(document, connection, true)</code>.
 	 *
@@ -113,4 +134,29 @@ public class RasterOutput {
 		save(image, ext, connection.getOutputStream(), close);
 	}
 
+	/**
+	 * Sends the content of file, usually an output cached in disk by the
+	 * {@link OutputCache}, through channel. Content is transferred with
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so when
+	 * channel is a file or a socket, the operating system copies it directly,
+	 * without going through the heap. channel is not closed.
+	 */
+	public static void transfer(File file, WritableByteChannel channel) throws IOException {
+		try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long size = source.size();
+			long position = 0;
+			while (position < size)
+				position += source.transferTo(position, size - position, channel);
+		}
+	}
+
+	/**
+	 * Sends the content of file through os, copying it through a buffer. os
+	 * is not closed. Use {@link #transfer(File, WritableByteChannel)} with the
+	 * channel of a file or a socket to avoid the copy.
+	 */
+	public static void transfer(File file, OutputStream os) throws IOException {
+		Files.copy(file.toPath(), os);
+	}
+
 }
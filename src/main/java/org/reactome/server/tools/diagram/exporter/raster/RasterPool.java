@@ -0,0 +1,156 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe pool of int pixel arrays for TYPE_INT_RGB and TYPE_INT_ARGB
+ * BufferedImages. Large images are tens or hundreds of MB, so allocating one
+ * per render (or per GIF frame) forces the garbage collector to deal with
+ * huge objects continuously.
+ * <p>
+ * Arrays are grouped in size classes (8 classes per power of 2, so at most
+ * 12.5% of the array is unused) and kept through SoftReferences, so the GC can
+ * still take them if memory is needed. Only images whose lifetime ends inside
+ * the exporter must be released: once released, the image must not be used
+ * anymore, as its pixels will be reused by the next acquired image. Images
+ * that are never released are simply collected as usual.
+ */
+public class RasterPool {
+
+	/** Smaller images are not worth pooling */
+	private static final int MIN_POOLED_SIZE = 1 << 16;
+	/** Max number of arrays kept per size class */
+	private static final int MAX_PER_CLASS = 4;
+	/** Max number of pixels kept in the pool, 400MB */
+	private static final long MAX_POOLED_PIXELS = 100_000_000L;
+	private static final int[] RGB_MASKS = {0xff0000, 0xff00, 0xff};
+	private static final int[] ARGB_MASKS = {0xff0000, 0xff00, 0xff, 0xff000000};
+	private static final ColorModel RGB = new DirectColorModel(24, 0xff0000, 0xff00, 0xff, 0);
+	private static final ColorModel ARGB = ColorModel.getRGBdefault();
+
+	private static final Map<Integer, Deque<SoftReference<int[]>>> pool = new ConcurrentHashMap<>();
+	private static final AtomicLong pooledPixels = new AtomicLong();
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+
+	private RasterPool() {
+	}
+
+	/**
+	 * Gets a BufferedImage of the given type, with all of its pixels set to
+	 * 0. The pixels are taken from the pool if there is an array of the same
+	 * size class.
+	 *
+	 * @param type BufferedImage.TYPE_INT_RGB or BufferedImage.TYPE_INT_ARGB
+	 */
+	public static BufferedImage acquire(int width, int height, int type) {
+		if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB)
+			throw new IllegalArgumentException("Only TYPE_INT_RGB and TYPE_INT_ARGB are supported");
+		final int size = width * height;
+		if (size < MIN_POOLED_SIZE) return new BufferedImage(width, height, type);
+		final int capacity = sizeClass(size);
+		int[] data = poll(capacity);
+		if (data == null) {
+			misses.incrementAndGet();
+			data = new int[capacity];
+		} else {
+			hits.incrementAndGet();
+			Arrays.fill(data, 0, size, 0);
+		}
+		final DataBufferInt buffer = new DataBufferInt(data, size);
+		final boolean alpha = type == BufferedImage.TYPE_INT_ARGB;
+		final WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width,
+				alpha ? ARGB_MASKS : RGB_MASKS, new Point());
+		return new BufferedImage(alpha ? ARGB : RGB, raster, false, null);
+	}
+
+	/**
+	 * Returns the pixels of image to the pool. image must not be used after
+	 * this call. Images stored in an {@link OffHeapDataBuffer} return their
+	 * memory to its budget. Other images not created by {@link #acquire(int,
+	 * int, int)} are ignored.
+	 */
+	public static void release(BufferedImage image) {
+		if (image == null) return;
+		final DataBuffer buffer = image.getRaster().getDataBuffer();
+		if (buffer instanceof OffHeapDataBuffer) {
+			((OffHeapDataBuffer) buffer).release();
+			return;
+		}
+		if (!(buffer instanceof DataBufferInt) || buffer.getNumBanks() != 1) return;
+		final int[] data = ((DataBufferInt) buffer).getData();
+		if (data.length < MIN_POOLED_SIZE || sizeClass(data.length) != data.length) return;
+		if (pooledPixels.addAndGet(data.length) > MAX_POOLED_PIXELS) {
+			pooledPixels.addAndGet(-data.length);
+			return;
+		}
+		final Deque<SoftReference<int[]>> queue = pool.computeIfAbsent(data.length, k -> new ConcurrentLinkedDeque<>());
+		if (queue.size() >= MAX_PER_CLASS) {
+			pooledPixels.addAndGet(-data.length);
+			return;
+		}
+		queue.push(new SoftReference<>(data));
+	}
+
+	/**
+	 * Number of images acquired with pixels from the pool.
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of pooled-size images acquired with new pixels.
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Ratio of hits over pooled-size acquisitions, 0 if there were none.
+	 */
+	public static double getHitRate() {
+		final long h = hits.get();
+		final long total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	/**
+	 * Releases all the pooled pixels and resets the counters.
+	 */
+	public static void clear() {
+		pool.clear();
+		pooledPixels.set(0);
+		hits.set(0);
+		misses.set(0);
+	}
+
+	private static int[] poll(int capacity) {
+		final Deque<SoftReference<int[]>> queue = pool.get(capacity);
+		if (queue == null) return null;
+		SoftReference<int[]> reference;
+		while ((reference = queue.poll()) != null) {
+			pooledPixels.addAndGet(-capacity);
+			final int[] data = reference.get();
+			// the GC may have already taken it
+			if (data != null) return data;
+		}
+		return null;
+	}
+
+	/**
+	 * Rounds size up to the next size class: 8 classes per power of 2.
+	 */
+	private static int sizeClass(int size) {
+		final int step = Integer.highestOneBit(size) >> 3;
+		return (int) Math.min(Integer.MAX_VALUE, ((long) size + step - 1) / step * step);
+	}
+}
@@ -1,11 +1,13 @@
 package org.reactome.server.tools.diagram.exporter.raster;
 
+import org.apache.batik.transcoder.TranscoderException;
 import org.w3c.dom.svg.SVGDocument;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
 
 /**
  * Render Reactome pathway diagrams. Diagrams can be exported to raster
@@ -19,6 +21,17 @@ public interface RasterRenderer {
 	@SuppressWarnings("unused")
 	Dimension getDimension();
 
+	/**
+	 * Estimates the heap memory needed by the rasters of {@link #render()} or
+	 * {@link #renderToAnimatedGif(OutputStream)}, including intermediate
+	 * images. Pixels stored outside the heap are not counted.
+	 *
+	 * @param animated true for the animated GIF, false for render()
+	 *
+	 * @return an approximate amount of bytes
+	 */
+	long getMemoryEstimate(boolean animated);
+
 	/**
 	 * Renders the diagram into a BufferedImage
 	 */
@@ -39,4 +52,30 @@ public interface RasterRenderer {
 	 * Renders the diagram into a SVGDocument.
 	 */
 	SVGDocument renderToSvg();
+
+	/**
+	 * Renders the diagram as SVG into outputStream, which is not closed. By
+	 * default, the document of {@link #renderToSvg()} is serialized.
+	 *
+	 * @throws IOException as thrown in {@link OutputStream#write(byte[])}
+	 */
+	default void renderToSvg(OutputStream outputStream) throws IOException {
+		try {
+			RasterOutput.save(renderToSvg(), outputStream, false);
+		} catch (TranscoderException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Stops the render if the current thread has been interrupted, which is
+	 * how asynchronous exports are cancelled. Renderers should call it
+	 * between long steps.
+	 *
+	 * @throws CancellationException if the current thread is interrupted
+	 */
+	static void checkInterrupted() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException("Render interrupted");
+	}
 }
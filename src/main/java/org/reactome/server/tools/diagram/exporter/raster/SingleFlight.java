@@ -0,0 +1,64 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent executions with the same key: the first caller runs
+ * the export and the rest wait for it and receive the same result, or the
+ * same exception. If the running export is cancelled (its thread was
+ * interrupted), waiting callers don't share the cancellation, and one of them
+ * runs the export again.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	V execute(K key, RasterExporter.Export<V> export) throws Exception {
+		while (true) {
+			final CompletableFuture<V> future = new CompletableFuture<>();
+			final CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+			if (running == null) return run(key, future, export);
+			coalesced.incrementAndGet();
+			try {
+				return running.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Render interrupted");
+			} catch (CancellationException e) {
+				// the owner was cancelled, not us, so try again
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+				if (e.getCause() instanceof Error) throw (Error) e.getCause();
+				throw e;
+			}
+		}
+	}
+
+	private V run(K key, CompletableFuture<V> future, RasterExporter.Export<V> export) throws Exception {
+		try {
+			final V value = export.run();
+			future.complete(value);
+			return value;
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * @return how many calls received the result of another one
+	 */
+	long getCoalesced() {
+		return coalesced.get();
+	}
+}
@@ -3,9 +3,8 @@ package org.reactome.server.tools.diagram.exporter.raster.api;
 import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorProfiles;
 
 import java.awt.*;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.List;
 
 public class RasterArgs {
 
@@ -20,6 +19,9 @@ public class RasterArgs {
 	private String resource;
 	private Boolean writeTitle;
 	private Integer quality = 5;
+	private Boolean compact;
+	private Integer precision;
+	private Boolean vectorHalo;
 	private Double factor = scale(quality);
 
 	public RasterArgs(String stId, String format) {
@@ -150,4 +152,99 @@ public class RasterArgs {
 			this.factor = scale(quality);
 		}
 	}
+
+	public Boolean getCompact() {
+		return compact;
+	}
+
+	/**
+	 * Only for streamed SVGs: styles are written as CSS classes, lines with
+	 * the same style are merged and repeated shapes are reused.
+	 */
+	public void setCompact(Boolean compact) {
+		this.compact = compact;
+	}
+
+	public Integer getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * Only for streamed SVGs: max number of decimals of the coordinates, from
+	 * 0 to 6. Defaults to 3.
+	 */
+	public void setPrecision(Integer precision) {
+		this.precision = precision;
+	}
+
+	public Boolean getVectorHalo() {
+		return vectorHalo;
+	}
+
+	/**
+	 * Only for EHLDs: selected and flagged regions are outlined with thick
+	 * vector strokes instead of raster filters, which are much slower to
+	 * render at high qualities.
+	 */
+	public void setVectorHalo(Boolean vectorHalo) {
+		this.vectorHalo = vectorHalo;
+	}
+
+	/**
+	 * Identifies the output of these args: two RasterArgs with the same key
+	 * produce the same image. Flags and selected are sorted, profiles are
+	 * reduced to their names and the quality is used instead of the factor.
+	 * Every value is prefixed with its length, so values containing any
+	 * character can't be confused.
+	 */
+	public String getCanonicalKey() {
+		return getKey(format, column);
+	}
+
+	/**
+	 * Same as {@link #getCanonicalKey()} for animated GIFs, which have a frame
+	 * per column and are always GIF, so column and format are not part of
+	 * the key.
+	 */
+	public String getAnimatedKey() {
+		return "animated|" + getKey(null, null);
+	}
+
+	private String getKey(String format, Integer column) {
+		final List<String> values = Arrays.asList(
+				stId,
+				format,
+				String.valueOf(quality),
+				getProfiles().getDiagramSheet().getName(),
+				getProfiles().getAnalysisSheet().getName(),
+				getProfiles().getInteractorsSheet().getName(),
+				token,
+				resource,
+				column == null ? null : String.valueOf(column),
+				writeTitle == null ? null : String.valueOf(writeTitle),
+				background == null ? null : Integer.toHexString(background.getRGB()),
+				join(flags),
+				join(selected),
+				compact == null ? null : String.valueOf(compact),
+				precision == null ? null : String.valueOf(precision),
+				vectorHalo == null ? null : String.valueOf(vectorHalo));
+		final StringBuilder key = new StringBuilder();
+		values.forEach(value -> append(key, value));
+		return key.toString();
+	}
+
+	private static String join(Set<String> values) {
+		if (values == null) return null;
+		final StringBuilder joined = new StringBuilder();
+		new TreeSet<>(values).forEach(value -> append(joined, value));
+		return joined.toString();
+	}
+
+	/**
+	 * Appends value as length:value, or - if it is null
+	 */
+	private static void append(StringBuilder key, String value) {
+		if (value == null) key.append('-');
+		else key.append(value.length()).append(':').append(value);
+	}
 }
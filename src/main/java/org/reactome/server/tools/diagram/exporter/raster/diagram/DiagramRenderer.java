@@ -10,27 +10,37 @@ import org.reactome.server.tools.diagram.data.layout.Diagram;
 import org.reactome.server.tools.diagram.exporter.common.ResourcesFactory;
 import org.reactome.server.tools.diagram.exporter.common.profiles.factory.DiagramJsonDeserializationException;
 import org.reactome.server.tools.diagram.exporter.common.profiles.factory.DiagramJsonNotFoundException;
+import org.reactome.server.tools.diagram.exporter.raster.OffHeapDataBuffer;
+import org.reactome.server.tools.diagram.exporter.raster.RasterPool;
 import org.reactome.server.tools.diagram.exporter.raster.RasterRenderer;
 import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
 import org.reactome.server.tools.diagram.exporter.raster.diagram.common.DiagramIndex;
 import org.reactome.server.tools.diagram.exporter.raster.diagram.common.FontProperties;
 import org.reactome.server.tools.diagram.exporter.raster.diagram.layers.DiagramCanvas;
+import org.reactome.server.tools.diagram.exporter.raster.diagram.layers.FillLayer;
+import org.reactome.server.tools.diagram.exporter.raster.diagram.layers.Layer;
 import org.reactome.server.tools.diagram.exporter.raster.diagram.renderers.CompartmentRenderer;
 import org.reactome.server.tools.diagram.exporter.raster.diagram.renderers.LegendRenderer;
 import org.reactome.server.tools.diagram.exporter.raster.diagram.renderers.NoteRenderer;
 import org.reactome.server.tools.diagram.exporter.raster.gif.AnimatedGifEncoder;
 import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorProfiles;
+import org.reactome.server.tools.diagram.exporter.raster.svg.SvgWriterGraphics;
 import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.svg.SVGDocument;
 
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.io.OutputStream;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -58,6 +68,24 @@ public class DiagramRenderer implements RasterRenderer {
 	 */
 	private static final double MAX_IMAGE_SIZE = 1e8; // 100Mpixels
 	private static final double MAX_GIF_SIZE = 1e7; // 10Mpixels
+	/**
+	 * Larger images are stored outside the Java heap
+	 */
+	private static final double OFF_HEAP_SIZE = 2.5e7; // 100MB
+	/**
+	 * Larger off heap images are stored in a memory mapped temp file, so they
+	 * do not take direct memory
+	 */
+	private static final double MAPPED_SIZE = 5e7; // 200MB
+	/**
+	 * Max amount of pixels of each strip when rendering off heap
+	 */
+	private static final int STRIP_SIZE = 1 << 22; // 16MB
+	/**
+	 * Animated GIF frames with more changed regions, once merged, are fully
+	 * rendered, as each region traverses the whole canvas
+	 */
+	private static final int MAX_REGIONS = 32;
 	private static final int MARGIN = 15;
 	private static final Set<String> TRANSPARENT_FORMATS = new HashSet<>(Collections.singletonList("png"));
 	private static final Set<String> NO_TRANSPARENT_FORMATS = new HashSet<>(Arrays.asList("jpg", "jpeg", "gif"));
@@ -107,6 +135,18 @@ public class DiagramRenderer implements RasterRenderer {
 		return new Dimension(width, height);
 	}
 
+	@Override
+	public long getMemoryEstimate(boolean animated) {
+		final Dimension dimension = getDimension();
+		final double pixels = dimension.getWidth() * dimension.getHeight();
+		// frame, plus its BGR copy and the indexed pixels in the encoder
+		if (animated) return (long) (8 * Math.min(pixels, MAX_GIF_SIZE));
+		// the off heap image is charged to the direct memory budget, only its
+		// strip is in the heap
+		if (pixels > OFF_HEAP_SIZE) return 4L * STRIP_SIZE;
+		return (long) (4 * pixels);
+	}
+
 	/**
 	 * Renders an Image with given dimensions
 	 *
@@ -121,12 +161,65 @@ public class DiagramRenderer implements RasterRenderer {
 		int offsetY = (int) ((MARGIN - bounds.getMinY()) * factor + 0.5);
 
 		final String ext = args.getFormat();
+		if ((double) width * height > OFF_HEAP_SIZE)
+			return renderOffHeap(width, height, offsetX, offsetY, ext);
 		final BufferedImage image = createImage(width, height, ext);
 		final Graphics2D graphics = createGraphics(image, ext, factor, offsetX, offsetY);
 		canvas.render(graphics);
 		return image;
 	}
 
+	/**
+	 * Renders the canvas into an image whose pixels are stored in direct
+	 * memory. Painting directly on it would be very slow, so the image is
+	 * rendered in horizontal strips into a heap image and each strip is
+	 * copied into the final buffer.
+	 */
+	private BufferedImage renderOffHeap(int width, int height, int offsetX, int offsetY, String ext) {
+		final OffHeapDataBuffer buffer = createBuffer(width * height);
+		final int stripHeight = Math.max(1, Math.min(height, STRIP_SIZE / width));
+		final BufferedImage strip = createImage(width, stripHeight, ext);
+		final int[] pixels = ((DataBufferInt) strip.getRaster().getDataBuffer()).getData();
+		try {
+			for (int y = 0; y < height; y += stripHeight) {
+				final int rows = Math.min(stripHeight, height - y);
+				// transparent formats are not cleared by createGraphics
+				if (TRANSPARENT_FORMATS.contains(ext)) Arrays.fill(pixels, 0, width * stripHeight, 0);
+				final Graphics2D graphics = createGraphics(strip, ext, factor, offsetX, offsetY - y);
+				final Rectangle2D area = new Rectangle2D.Double(
+						-offsetX / factor,
+						(y - offsetY) / factor,
+						width / factor,
+						rows / factor);
+				canvas.render(graphics, area);
+				graphics.dispose();
+				buffer.put(y * width, pixels, 0, rows * width);
+			}
+		} finally {
+			RasterPool.release(strip);
+		}
+		return OffHeapDataBuffer.createImage(width, height, strip.getType(), buffer);
+	}
+
+	/**
+	 * Allocates the buffer in direct memory, or maps it to a temp file when
+	 * it is larger than MAPPED_SIZE. The file is deleted as soon as it is
+	 * mapped: the mapping keeps it alive until the buffer is collected.
+	 */
+	private OffHeapDataBuffer createBuffer(int size) {
+		if (size <= MAPPED_SIZE) return OffHeapDataBuffer.allocate(size);
+		try {
+			final File file = File.createTempFile("diagram", ".raster");
+			try {
+				return OffHeapDataBuffer.map(file, size);
+			} finally {
+				if (!file.delete()) file.deleteOnExit();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 	/**
 	 * Animated GIF are generated into a temp File
 	 */
@@ -148,11 +241,24 @@ public class DiagramRenderer implements RasterRenderer {
 		encoder.setRepeat(0);
 //		encoder.setQuality(1);
 		encoder.start(outputStream);
-		for (int t = 0; t < index.getAnalysis().getResult().getExpression().getColumnNames().size(); t++) {
-			final BufferedImage image = frame(factor, width, height, offsetX, offsetY, t);
-			encoder.addFrame(image);
+		// Only nodeAnalysis and the legend ticks and text change between
+		// frames. The same image is used for every frame: the first one is
+		// fully rendered and the next ones only repaint the changed regions
+		final BufferedImage image = createImage(width, height, "gif");
+		try {
+			for (int t = 0; t < index.getAnalysis().getResult().getExpression().getColumnNames().size(); t++) {
+				RasterRenderer.checkInterrupted();
+				final List<Rectangle2D> changes = update(t);
+				final List<Rectangle> regions = changes == null ? null : toRegions(changes, factor, offsetX, offsetY, width, height);
+				if (t == 0 || regions == null || isLarge(regions, width, height))
+					frame(image, factor, offsetX, offsetY);
+				else frame(image, factor, offsetX, offsetY, regions);
+				encoder.addFrame(image);
+			}
+			encoder.finish();
+		} finally {
+			RasterPool.release(image);
 		}
-		encoder.finish();
 	}
 
 	@Override
@@ -166,27 +272,169 @@ public class DiagramRenderer implements RasterRenderer {
 		document.removeChild(document.getRootElement());
 		document.appendChild(graphics2D.getRoot());
 
+		final Rectangle viewBox = getViewBox();
+		final String value = String.format("%d %d %d %d", viewBox.x, viewBox.y, viewBox.width, viewBox.height);
+		document.getRootElement().setAttribute(SVGConstants.SVG_VIEW_BOX_ATTRIBUTE, value);
+		return document;
+	}
+
+	/**
+	 * Writes the SVG while the canvas is rendered, without building a DOM, so
+	 * memory does not depend on the size of the diagram. See {@link
+	 * RasterArgs#setCompact(Boolean)} and {@link RasterArgs#setPrecision(Integer)}.
+	 */
+	@Override
+	public void renderToSvg(OutputStream outputStream) throws IOException {
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		final boolean compact = args.getCompact() != null && args.getCompact();
+		final SvgWriterGraphics graphics = new SvgWriterGraphics(writer);
+		graphics.setCompact(compact);
+		if (args.getPrecision() != null) graphics.setPrecision(args.getPrecision());
+		// the size without compaction is counted while painting
+		final boolean report = compact && log.isLoggable(Level.FINE);
+		graphics.setCountVerbose(report);
+		graphics.setFont(FontProperties.DEFAULT_FONT);
+		try {
+			graphics.start(getViewBox());
+			canvas.render(graphics);
+			graphics.finish();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if (report)
+			log.fine(String.format("Compact SVG of %s: %d characters, %d characters without compaction",
+					args.getStId(), graphics.getSize(), graphics.getVerboseSize()));
+	}
+
+	/**
+	 * The bounds of the canvas plus the margin, in diagram coordinates
+	 */
+	private Rectangle getViewBox() {
 		final Rectangle2D bounds = canvas.getBounds();
 		int width = (int) ((2 * MARGIN + bounds.getWidth()) + 0.5);
 		int height = (int) ((2 * MARGIN + bounds.getHeight()) + 0.5);
 		int minX = (int) ((MARGIN - bounds.getMinX()) + 0.5);
 		int minY = (int) ((MARGIN - bounds.getMinY()) + 0.5);
-
-		final String viewBox = String.format("%d %d %d %d", -minX, -minY, width, height);
-		document.getRootElement().setAttribute(SVGConstants.SVG_VIEW_BOX_ATTRIBUTE, viewBox);
-		return document;
+		return new Rectangle(-minX, -minY, width, height);
 	}
 
-	private BufferedImage frame(double factor, int width, int height, int offsetX, int offsetY, int t) {
+	/**
+	 * Sets the analysis and the legend to column t.
+	 *
+	 * @return the areas of the canvas that changed since the previous column,
+	 * or null if they can't be computed
+	 */
+	private List<Rectangle2D> update(int t) {
+		final List<Rectangle2D> changes = new ArrayList<>();
+		addLegendBounds(changes);
+		final FillLayer previous = canvas.getNodeAnalysis().copy();
 		canvas.getNodeAnalysis().clear();
 		index.getNodes().forEach(renderableNode ->
 				renderableNode.renderAnalysis(canvas, colorProfiles, index, t));
 		// Update legend
 		legendRenderer.setCol(t, title);
-		final BufferedImage image = createImage(width, height, "gif");
+		addLegendBounds(changes);
+		final List<Rectangle2D> nodeChanges = canvas.getNodeAnalysis().getChanges(previous);
+		if (nodeChanges == null) return null;
+		changes.addAll(nodeChanges);
+		return changes;
+	}
+
+	private void addLegendBounds(List<Rectangle2D> changes) {
+		for (Layer layer : Arrays.asList(canvas.getLegendTicks(), canvas.getLegendTickArrows(), canvas.getLegendBottomText())) {
+			final Rectangle2D bounds = layer.getBounds();
+			if (bounds != null) changes.add(bounds);
+		}
+	}
+
+	private void frame(BufferedImage image, double factor, int offsetX, int offsetY) {
 		final Graphics2D graphics = createGraphics(image, "gif", factor, offsetX, offsetY);
 		canvas.render(graphics);
-		return image;
+		graphics.dispose();
+	}
+
+	/**
+	 * Repaints the pixels covered by regions, leaving the rest of the image
+	 * untouched.
+	 */
+	private void frame(BufferedImage image, double factor, int offsetX, int offsetY, List<Rectangle> regions) {
+		for (Rectangle pixels : regions) {
+			// The subimage shares the pixels with image and, unlike a clip,
+			// does not interfere with the clips used by TextRenderer
+			final BufferedImage region = image.getSubimage(pixels.x, pixels.y, pixels.width, pixels.height);
+			final Graphics2D graphics = createGraphics(region, "gif", factor, offsetX - pixels.x, offsetY - pixels.y);
+			// Back to diagram coordinates, so the whole pixels are repainted
+			final Rectangle2D area = new Rectangle2D.Double(
+					(pixels.getX() - offsetX) / factor,
+					(pixels.getY() - offsetY) / factor,
+					pixels.getWidth() / factor,
+					pixels.getHeight() / factor);
+			canvas.render(graphics, area);
+			graphics.dispose();
+		}
+	}
+
+	/**
+	 * Whether repainting regions would cost more than rendering the whole
+	 * image
+	 */
+	private boolean isLarge(List<Rectangle> regions, int width, int height) {
+		if (regions.size() > MAX_REGIONS) return true;
+		double size = 0;
+		for (Rectangle pixels : regions) size += pixels.getWidth() * pixels.getHeight();
+		return size > 0.5 * width * height;
+	}
+
+	/**
+	 * The changes in pixels, merged so every pixel is repainted only once
+	 */
+	private List<Rectangle> toRegions(List<Rectangle2D> changes, double factor, int offsetX, int offsetY, int width, int height) {
+		final List<Rectangle> pixels = new ArrayList<>();
+		for (Rectangle2D change : changes) {
+			final Rectangle rectangle = toPixels(change, factor, offsetX, offsetY, width, height);
+			if (!rectangle.isEmpty()) pixels.add(rectangle);
+		}
+		return merge(pixels);
+	}
+
+	/**
+	 * Replaces overlapping or adjacent rectangles by their union, until no
+	 * two rectangles touch each other. The union may cover a few more pixels
+	 * than the rectangles, but each region costs a full traversal of the
+	 * canvas, so fewer regions are faster.
+	 */
+	static List<Rectangle> merge(List<Rectangle> rectangles) {
+		final List<Rectangle> merged = new ArrayList<>();
+		for (Rectangle rectangle : rectangles) {
+			Rectangle current = rectangle;
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				// grown by one pixel, so adjacent rectangles intersect it
+				final Rectangle grown = new Rectangle(current.x - 1, current.y - 1, current.width + 2, current.height + 2);
+				for (int i = 0; i < merged.size(); i++) {
+					if (grown.intersects(merged.get(i))) {
+						current = current.union(merged.remove(i));
+						changed = true;
+						break;
+					}
+				}
+			}
+			merged.add(current);
+		}
+		return merged;
+	}
+
+	/**
+	 * Smallest rectangle of whole pixels containing area, with an extra pixel
+	 * for antialiasing, and limited to the image.
+	 */
+	private Rectangle toPixels(Rectangle2D area, double factor, int offsetX, int offsetY, int width, int height) {
+		final int minX = (int) Math.floor(area.getMinX() * factor + offsetX) - 1;
+		final int minY = (int) Math.floor(area.getMinY() * factor + offsetY) - 1;
+		final int maxX = (int) Math.ceil(area.getMaxX() * factor + offsetX) + 1;
+		final int maxY = (int) Math.ceil(area.getMaxY() * factor + offsetY) + 1;
+		return new Rectangle(minX, minY, maxX - minX, maxY - minY).intersection(new Rectangle(width, height));
 	}
 
 	private double limitFactor(Rectangle2D bounds, double maxSize) {
@@ -205,9 +453,9 @@ public class DiagramRenderer implements RasterRenderer {
 
 	private BufferedImage createImage(int width, int height, String ext) {
 		if (TRANSPARENT_FORMATS.contains(ext))
-			return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			return RasterPool.acquire(width, height, BufferedImage.TYPE_INT_ARGB);
 		else if (NO_TRANSPARENT_FORMATS.contains(ext))
-			return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			return RasterPool.acquire(width, height, BufferedImage.TYPE_INT_RGB);
 		else
 			throw new IllegalArgumentException("Unsupported file extension " + ext);
 	}
@@ -237,9 +485,12 @@ public class DiagramRenderer implements RasterRenderer {
 
 	private void layout() {
 		compartments();
+		RasterRenderer.checkInterrupted();
 		nodes();
+		RasterRenderer.checkInterrupted();
 		notes();
 		edges();
+		RasterRenderer.checkInterrupted();
 		legend();
 	}
 
@@ -0,0 +1,87 @@
+package org.reactome.server.tools.diagram.exporter.raster.diagram.common;
+
+import org.reactome.server.analysis.core.result.model.AnalysisResult;
+import org.reactome.server.analysis.core.result.model.FoundEntity;
+import org.reactome.server.tools.diagram.data.graph.Graph;
+import org.reactome.server.tools.diagram.exporter.raster.diagram.renderables.RenderableNode;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The analysis data of a diagram, by diagram node id: enrichment and median
+ * expression of subpathways, enrichment of the rest of nodes and their hit
+ * expressions. It depends only on the token, the resource and the diagram, not
+ * on the format or the quality of the export, so projections are cached and
+ * reused by consecutive exports of the same analysis.
+ */
+class AnalysisProjection {
+
+	private static final int MAX_PROJECTIONS = 50;
+	// Projections are not modified once cached, so they can be shared
+	private static final Map<List<String>, AnalysisProjection> PROJECTIONS = new LinkedHashMap<List<String>, AnalysisProjection>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<String>, AnalysisProjection> eldest) {
+			return size() > MAX_PROJECTIONS;
+		}
+	};
+
+	private final Graph graph;
+	private final AnalysisResult summary;
+	private final Map<Long, Double> enrichments = new HashMap<>();
+	private final Map<Long, Double> expressionValues = new HashMap<>();
+	private final Map<Long, List<FoundEntity>> hitExpressions = new HashMap<>();
+
+	AnalysisProjection(Graph graph, AnalysisResult summary) {
+		this.graph = graph;
+		this.summary = summary;
+	}
+
+	/**
+	 * @return the projection of the analysis token for the resource on the
+	 * diagram stId, or null if it is not cached or its graph has changed
+	 */
+	static AnalysisProjection get(String token, String resource, String stId, Graph graph) {
+		synchronized (PROJECTIONS) {
+			final AnalysisProjection projection = PROJECTIONS.get(Arrays.asList(token, resource, stId));
+			return projection != null && projection.graph == graph ? projection : null;
+		}
+	}
+
+	static void put(String token, String resource, String stId, AnalysisProjection projection) {
+		synchronized (PROJECTIONS) {
+			PROJECTIONS.put(Arrays.asList(token, resource, stId), projection);
+		}
+	}
+
+	void setEnrichment(Long id, double enrichment) {
+		enrichments.put(id, enrichment);
+	}
+
+	void setExpressionValue(Long id, Double expressionValue) {
+		expressionValues.put(id, expressionValue);
+	}
+
+	void setHitExpressions(Long id, List<FoundEntity> hits) {
+		hitExpressions.put(id, hits);
+	}
+
+	AnalysisResult getSummary() {
+		return summary;
+	}
+
+	/**
+	 * Copies the analysis data into the RenderableNodes of index.
+	 */
+	void apply(DiagramIndex index) {
+		enrichments.forEach((id, enrichment) -> apply(index, id, node -> node.setEnrichment(enrichment)));
+		expressionValues.forEach((id, value) -> apply(index, id, node -> node.setExpressionValue(value)));
+		hitExpressions.forEach((id, hits) -> apply(index, id, node -> node.setHitExpressions(hits)));
+	}
+
+	private void apply(DiagramIndex index, Long id, Consumer<RenderableNode> consumer) {
+		final RenderableNode node = index.getNode(id);
+		// the layout may have changed since the projection was computed
+		if (node != null) consumer.accept(node);
+	}
+}
@@ -5,11 +5,9 @@ import org.reactome.server.analysis.core.result.AnalysisStoredResult;
 import org.reactome.server.analysis.core.result.model.*;
 import org.reactome.server.tools.diagram.data.graph.EntityNode;
 import org.reactome.server.tools.diagram.data.graph.Graph;
-import org.reactome.server.tools.diagram.data.graph.GraphNode;
 import org.reactome.server.tools.diagram.data.layout.Diagram;
 import org.reactome.server.tools.diagram.data.layout.DiagramObject;
 import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
-import org.reactome.server.tools.diagram.exporter.raster.diagram.renderables.RenderableNode;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -21,6 +19,10 @@ import java.util.stream.Stream;
  * SPECIES_COMPARISON, adds to each RenderableNode the percentage covered by the
  * analysis. If it is an EXPRESSION analysis, adds the hitExpression values. If
  * there is no analysis, it doesn't add anything.
+ * <p>
+ * The analysis data is computed into an {@link AnalysisProjection}, which is
+ * cached, so exports of the same analysis and diagram in other formats or
+ * qualities reuse it.
  */
 public class DiagramAnalysis {
 
@@ -31,12 +33,12 @@ public class DiagramAnalysis {
 	private final Graph graph;
 	private final Diagram diagram;
 	private Map<Long, DiagramObject> diagramIndex;
-	private Map<Long, EntityNode> graphIndex;
+	private GraphIndex graphIndex;
+	private AnalysisProjection projection;
 
 	private final AnalysisType type;
 	private AnalysisStoredResult result;
 	private String resource;
-	private AnalysisResult summary;
 
 	DiagramAnalysis(AnalysisStoredResult result, DiagramIndex index, RasterArgs args, Graph graph, Diagram diagram) {
 		this.index = index;
@@ -63,11 +65,17 @@ public class DiagramAnalysis {
 	}
 
 	private void initialise() {
-		if (result != null) {
+		if (result == null) return;
+		final String token = result.getSummary().getToken();
+		projection = token == null ? null : AnalysisProjection.get(token, resource, args.getStId(), graph);
+		if (projection == null) {
+			projection = new AnalysisProjection(graph, result.getResultSummary(resource));
 			index();
 			addAnalysisData();
 			clearIndex();
+			if (token != null) AnalysisProjection.put(token, resource, args.getStId(), projection);
 		}
+		projection.apply(index);
 	}
 
 	private void clearIndex() {
@@ -81,15 +89,13 @@ public class DiagramAnalysis {
 		Stream.of(diagram.getEdges(), diagram.getNodes(), diagram.getLinks())
 				.flatMap(Collection::stream)
 				.forEach(item -> diagramIndex.put(item.getReactomeId(), item));
-		graphIndex = new HashMap<>();
-		graph.getNodes().forEach(item -> graphIndex.put(item.getDbId(), item));
+		graphIndex = GraphIndex.get(graph);
 	}
 
 	/**
 	 * Extracts analysis information and attaches it to each diagram node.
 	 */
 	private void addAnalysisData() {
-		this.summary = result.getResultSummary(resource);
 		// Get subpathways (green boxes) % of analysis area
 		subPathways();
 		foundElements();
@@ -132,9 +138,8 @@ public class DiagramAnalysis {
 			double percentage = (double) found / total;
 			if (percentage < MIN_VISIBLE_ENRICHMENT && percentage > 0)
 				percentage = MIN_VISIBLE_ENRICHMENT;
-			final RenderableNode node = index.getNode(diagramNode.getId());
-			node.setEnrichment(percentage);
-			node.setExpressionValue(getMedian(entities.getExp()));
+			projection.setEnrichment(diagramNode.getId(), percentage);
+			projection.setExpressionValue(diagramNode.getId(), getMedian(entities.getExp()));
 		}
 	}
 
@@ -157,76 +162,65 @@ public class DiagramAnalysis {
 	private void expression(FoundElements foundElements) {
 		// analysis -> graph: analysis.mapsTo.id.contains(graph.identifier)
 		// graph -> layout:   layout.reactomeId == graph.dbId
-		// Index analysis nodes via mapsTo
-		final Map<String, FoundEntity> analysisIndex = new HashMap<>();
+		// Index analysis nodes by the leaves they map to
+		final Map<Integer, FoundEntity> leafHits = new HashMap<>();
 		foundElements.getEntities().forEach(analysisNode ->
 				analysisNode.getMapsTo().stream()
 						.map(IdentifierMap::getIds)
 						.flatMap(Collection::stream)
-						.forEach(id -> analysisIndex.put(id, analysisNode)));
+						.map(graphIndex::getLeaves)
+						.filter(Objects::nonNull)
+						.forEach(leaves -> leaves.stream().forEach(leaf -> leafHits.put(leaf, analysisNode))));
 
 		diagram.getNodes().forEach(diagramNode -> {
-			final EntityNode graphNode = graphIndex.get(diagramNode.getReactomeId());
+			final EntityNode graphNode = graphIndex.getNode(diagramNode.getReactomeId());
 			if (graphNode == null) return;
-			final List<FoundEntity> leaves = getLeaves(graphNode).stream()
-					.map(leafId -> analysisIndex.get(graphIndex.get(leafId).getIdentifier()))
+			final List<FoundEntity> leaves = graphIndex.getLeaves(graphNode).stream()
+					.mapToObj(leafHits::get)
 					.collect(Collectors.toList());
-			final RenderableNode renderableNode = index.getNode(diagramNode.getId());
-			renderableNode.setHitExpressions(leaves);
+			projection.setHitExpressions(diagramNode.getId(), leaves);
 		});
 	}
 
 	/** Computes only the relation of hit found components and found component */
 	private void enrichment(FoundElements foundElements) {
 		// analysis -> graph: analysis.mapsTo.ids.contains(graph.identifier)
-		final Set<String> identifiers = foundElements.getEntities().stream()
+		// Only leaves are counted
+		final BitSet leavesHit = new BitSet();
+		foundElements.getEntities().stream()
 				.map(FoundEntity::getMapsTo)
 				.flatMap(Collection::stream)
 				.map(IdentifierMap::getIds)
 				.flatMap(Collection::stream)
-				.collect(Collectors.toSet());
-		// graphNode.getIdentifier() -> graphNode.getDbId()
-		final Set<Long> graphNodeHit = graph.getNodes().stream()
-				.filter(entityNode -> identifiers.contains(entityNode.getIdentifier()))
-				.map(GraphNode::getDbId)
-				.collect(Collectors.toSet());
+				.map(graphIndex::getLeaves)
+				.filter(Objects::nonNull)
+				.forEach(leavesHit::or);
 		// run through the diagram nodes and compute the enrichment level for
 		// its associated graph node.
 		diagram.getNodes().stream()
 				.filter(node -> !node.getRenderableClass().equals("ProcessNode"))
 				.filter(node -> !node.getRenderableClass().equals("EncapsulatedNode"))
 				.forEach(diagramNode -> {
-					final EntityNode graphNode = graphIndex.get(diagramNode.getReactomeId());
+					final EntityNode graphNode = graphIndex.getNode(diagramNode.getReactomeId());
 					if (graphNode != null) {
-						double percentage = getPercentage(graphNodeHit, graphNode);
-						index.getNode(diagramNode.getId()).setEnrichment(percentage);
+						double percentage = getPercentage(leavesHit, graphNode);
+						projection.setEnrichment(diagramNode.getId(), percentage);
 					}
 				});
 	}
 
-	private double getPercentage(Set<Long> hitIds, EntityNode graphNode) {
-		final Set<Long> leaves = getLeaves(graphNode);
-		final int total = leaves.size();
-		final long count = leaves.stream().filter(hitIds::contains).count();
+	private double getPercentage(BitSet leavesHit, EntityNode graphNode) {
+		final BitSet leaves = graphIndex.getLeaves(graphNode);
+		final int total = leaves.cardinality();
+		final BitSet hit = (BitSet) leaves.clone();
+		hit.and(leavesHit);
+		final long count = hit.cardinality();
 		double percentage = (double) count / total;
 		if (percentage > 0 && percentage < MIN_VISIBLE_ENRICHMENT)
 			percentage = MIN_VISIBLE_ENRICHMENT;
 		return percentage;
 	}
 
-	private Set<Long> getLeaves(EntityNode node) {
-		if (node.getChildren() == null) {
-			return Collections.singleton(node.getDbId());
-		} else {
-			return node.getChildren().stream()
-					.map(graphIndex::get)
-					.filter(Objects::nonNull)
-					.map(this::getLeaves)
-					.flatMap(Collection::stream)
-					.collect(Collectors.toSet());
-		}
-	}
-
 	public AnalysisType getType() {
 		return type;
 	}
@@ -236,7 +230,7 @@ public class DiagramAnalysis {
 	}
 
 	public AnalysisResult getResult() {
-		return summary;
+		return projection == null ? null : projection.getSummary();
 	}
 
 }
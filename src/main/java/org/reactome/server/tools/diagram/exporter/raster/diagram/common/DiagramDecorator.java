@@ -1,7 +1,6 @@
 package org.reactome.server.tools.diagram.exporter.raster.diagram.common;
 
 import org.reactome.server.tools.diagram.data.graph.EntityNode;
-import org.reactome.server.tools.diagram.data.graph.EventNode;
 import org.reactome.server.tools.diagram.data.graph.Graph;
 import org.reactome.server.tools.diagram.data.layout.Diagram;
 import org.reactome.server.tools.diagram.data.layout.DiagramObject;
@@ -25,9 +24,8 @@ public class DiagramDecorator {
 	private final RasterArgs args;
 	private final Graph graph;
 	private final Diagram diagram;
-	private Map<Long, EntityNode> graphIndex;
+	private GraphIndex graphIndex;
 	private Map<Long, DiagramObject> diagramIndex;
-	private Set<Long> reactionIds;
 	private Set<Long> selected = new TreeSet<>();
 
 	DiagramDecorator(DiagramIndex index, RasterArgs args, Graph graph, Diagram diagram) {
@@ -39,14 +37,11 @@ public class DiagramDecorator {
 	}
 
 	private void decorate() {
-		graphIndex = new HashMap<>();
-		graph.getNodes().forEach(item -> graphIndex.put(item.getDbId(), item));
+		graphIndex = GraphIndex.get(graph);
 		diagramIndex = new HashMap<>();
 		Stream.of(diagram.getEdges(), diagram.getNodes())
 				.flatMap(Collection::stream)
 				.forEach(item -> diagramIndex.put(item.getId(), item));
-		reactionIds = new HashSet<>();
-		graph.getEdges().forEach(event -> reactionIds.add(event.getDbId()));
 
 		final Set<Long> sel = getSelectedIds();
 		final Set<Long> flg = getFlagged();
@@ -58,7 +53,7 @@ public class DiagramDecorator {
 		if (args.getSelected() == null)
 			return Collections.emptySet();
 		return args.getSelected().stream()
-				.map(this::getDiagramObjectId)
+				.map(graphIndex::getDbId)
 				.filter(Objects::nonNull)
 				.collect(Collectors.toSet());
 	}
@@ -67,7 +62,7 @@ public class DiagramDecorator {
 		if (args.getFlags() == null)
 			return Collections.emptySet();
 		return args.getFlags().stream()
-				.map(this::getDiagramObjectId)
+				.map(graphIndex::getDbId)
 				.filter(Objects::nonNull)
 				.map(this::getHitElements)
 				.flatMap(Collection::stream)
@@ -77,7 +72,7 @@ public class DiagramDecorator {
 	private Collection<Long> getHitElements(Long id) {
 		final Set<Long> ids = new HashSet<>();
 		ids.add(id);
-		final EntityNode node = graphIndex.get(id);
+		final EntityNode node = graphIndex.getNode(id);
 		if (node == null)
 			return ids;
 		if (node.getParents() != null)
@@ -85,39 +80,6 @@ public class DiagramDecorator {
 		return ids;
 	}
 
-	private Long getDiagramObjectId(String string) {
-		// dbId, this is faster because dbId is indexed
-		try {
-			final long dbId = Long.parseLong(string);
-			if (graphIndex.containsKey(dbId)
-					|| reactionIds.contains(dbId))
-				return dbId;
-		} catch (NumberFormatException ignored) {
-			// ignored, not a dbId
-		}
-		// TODO: would it be faster if index of stIds, dbIds, identifier and geneNames?
-		// Pros: avoid iterating through the list of nodes and edges
-		// Cons: index the list of nodes and edges just for a few selected or flag items
-		// Nodes
-		for (EntityNode node : graph.getNodes()) {
-			// stId
-			if (string.equalsIgnoreCase(node.getStId()))
-				return node.getDbId();
-			// identifier
-			if (string.equalsIgnoreCase(node.getIdentifier()))
-				return node.getDbId();
-			// geneNames
-			if (node.getGeneNames() != null && node.getGeneNames().contains(string))
-				return node.getDbId();
-		}
-		// Reactions
-		for (EventNode eventNode : graph.getEdges())
-			if (eventNode.getStId().equalsIgnoreCase(string))
-				return eventNode.getDbId();
-		// Bad luck, not found
-		return null;
-	}
-
 	private void decorateNodes(Collection<Long> selected, Collection<Long> flags) {
 		if (selected.isEmpty() && flags.isEmpty())
 			return;
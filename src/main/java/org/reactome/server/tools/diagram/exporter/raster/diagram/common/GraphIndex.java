@@ -0,0 +1,128 @@
+package org.reactome.server.tools.diagram.exporter.raster.diagram.common;
+
+import org.reactome.server.tools.diagram.data.graph.EntityNode;
+import org.reactome.server.tools.diagram.data.graph.EventNode;
+import org.reactome.server.tools.diagram.data.graph.Graph;
+
+import java.util.*;
+
+/**
+ * Indexes of a Graph that do not depend on the request. As graphs are cached
+ * by the ResourcesFactory, indexes are computed once per graph and kept while
+ * the graph is in use.
+ * <p>
+ * Leaves (nodes without children) are numbered from 0, so the leaves of each
+ * node are stored in a BitSet. Leaves are also indexed by their identifier,
+ * which is what analysis results map to.
+ * <p>
+ * Selected and flagged terms (stIds, identifiers and gene names) are resolved
+ * with a case insensitive index. When several objects share a term, the first
+ * node wins, and nodes are preferred over events.
+ */
+class GraphIndex {
+
+	private static final Map<Graph, GraphIndex> INDEXES = new WeakHashMap<>();
+
+	private final Map<Long, EntityNode> nodes = new HashMap<>();
+	private final Map<Long, BitSet> leaves = new HashMap<>();
+	private final List<EntityNode> leafNodes = new ArrayList<>();
+	private final Map<String, BitSet> leavesByIdentifier = new HashMap<>();
+	private final Set<Long> events = new HashSet<>();
+	private final Map<String, Long> terms = new HashMap<>();
+
+	private GraphIndex(Graph graph) {
+		graph.getNodes().forEach(node -> nodes.put(node.getDbId(), node));
+		graph.getNodes().forEach(this::computeLeaves);
+		for (EntityNode node : graph.getNodes()) {
+			putTerm(node.getStId(), node.getDbId());
+			putTerm(node.getIdentifier(), node.getDbId());
+			if (node.getGeneNames() != null)
+				node.getGeneNames().forEach(name -> putTerm(name, node.getDbId()));
+		}
+		for (EventNode event : graph.getEdges()) {
+			events.add(event.getDbId());
+			putTerm(event.getStId(), event.getDbId());
+		}
+	}
+
+	private void putTerm(String term, Long dbId) {
+		if (term != null) terms.putIfAbsent(term.toLowerCase(Locale.ROOT), dbId);
+	}
+
+	static GraphIndex get(Graph graph) {
+		synchronized (INDEXES) {
+			final GraphIndex index = INDEXES.get(graph);
+			if (index != null) return index;
+		}
+		// built outside the lock, so a large graph does not block the rest.
+		// If two threads build the same index, the first one is kept
+		final GraphIndex created = new GraphIndex(graph);
+		synchronized (INDEXES) {
+			final GraphIndex index = INDEXES.putIfAbsent(graph, created);
+			return index == null ? created : index;
+		}
+	}
+
+	private BitSet computeLeaves(EntityNode node) {
+		final BitSet cached = leaves.get(node.getDbId());
+		if (cached != null) return cached;
+		final BitSet bitSet = new BitSet();
+		// placeholder, in case of cycles
+		leaves.put(node.getDbId(), bitSet);
+		if (node.getChildren() == null) {
+			bitSet.set(leafNodes.size());
+			if (node.getIdentifier() != null)
+				leavesByIdentifier.computeIfAbsent(node.getIdentifier(), id -> new BitSet()).set(leafNodes.size());
+			leafNodes.add(node);
+		} else {
+			for (Long childId : node.getChildren()) {
+				final EntityNode child = nodes.get(childId);
+				if (child != null) bitSet.or(computeLeaves(child));
+			}
+		}
+		return bitSet;
+	}
+
+	/**
+	 * @return the node with dbId, or null if it is not in the graph
+	 */
+	EntityNode getNode(Long dbId) {
+		return nodes.get(dbId);
+	}
+
+	/**
+	 * @return the numbers of the leaves of node, or an empty BitSet if it is
+	 * not in the graph. The returned BitSet must not be modified
+	 */
+	BitSet getLeaves(EntityNode node) {
+		return leaves.getOrDefault(node.getDbId(), new BitSet());
+	}
+
+	/**
+	 * @return the numbers of the leaves with identifier, or null if there are
+	 * none. The returned BitSet must not be modified
+	 */
+	BitSet getLeaves(String identifier) {
+		return leavesByIdentifier.get(identifier);
+	}
+
+	EntityNode getLeaf(int number) {
+		return leafNodes.get(number);
+	}
+
+	/**
+	 * @param term a dbId, stId, identifier or gene name, ignoring case
+	 * @return the dbId of the node or event that term refers to, or null if
+	 * none
+	 */
+	Long getDbId(String term) {
+		try {
+			final long dbId = Long.parseLong(term);
+			if (nodes.containsKey(dbId) || events.contains(dbId))
+				return dbId;
+		} catch (NumberFormatException ignored) {
+			// ignored, not a dbId
+		}
+		return terms.get(term.toLowerCase(Locale.ROOT));
+	}
+}
@@ -5,6 +5,9 @@ import java.awt.geom.Rectangle2D;
 
 public abstract class CommonLayer implements Layer {
 
+	/** Extra space around shapes, for antialiasing and text shadows */
+	private static final double PAINT_MARGIN = 2;
+
 	private Double minY;
 	private Double minX;
 	private Double maxX;
@@ -39,4 +42,31 @@ public abstract class CommonLayer implements Layer {
 	public void clear() {
 		minX = minY = maxY = maxX = null;
 	}
+
+	/**
+	 * Whether filling shape may paint any pixel inside area.
+	 */
+	static boolean intersects(Shape shape, Rectangle2D area) {
+		return intersects(shape.getBounds2D(), 0, area);
+	}
+
+	/**
+	 * Whether drawing shape with stroke may paint any pixel inside area. If
+	 * stroke is not a BasicStroke, its extent is unknown and true is returned.
+	 */
+	static boolean intersects(Shape shape, Stroke stroke, Rectangle2D area) {
+		if (!(stroke instanceof BasicStroke)) return true;
+		final BasicStroke basicStroke = (BasicStroke) stroke;
+		// miter joins can go up to miterLimit * width / 2 away from the path
+		final double extent = 0.5 * basicStroke.getLineWidth() * Math.max(1, basicStroke.getMiterLimit());
+		return intersects(shape.getBounds2D(), extent, area);
+	}
+
+	private static boolean intersects(Rectangle2D bounds, double extent, Rectangle2D area) {
+		final double margin = extent + PAINT_MARGIN;
+		return bounds.getMaxX() + margin >= area.getMinX()
+				&& bounds.getMinX() - margin <= area.getMaxX()
+				&& bounds.getMaxY() + margin >= area.getMinY()
+				&& bounds.getMinY() - margin <= area.getMaxY();
+	}
 }
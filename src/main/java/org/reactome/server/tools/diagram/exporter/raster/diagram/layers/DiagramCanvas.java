@@ -1,5 +1,7 @@
 package org.reactome.server.tools.diagram.exporter.raster.diagram.layers;
 
+import org.reactome.server.tools.diagram.exporter.raster.RasterRenderer;
+
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
 import java.util.Arrays;
@@ -85,10 +87,25 @@ public class DiagramCanvas {
 
 	/**
 	 * loops through layers in order, calling {@link Layer#render(Graphics2D)}
-	 * for each. This should create an Image in graphics.
+	 * for each. This should create an Image in graphics. Stops with a
+	 * CancellationException if the thread is interrupted between layers.
 	 */
 	public void render(Graphics2D graphics) {
-		layers.forEach(layer -> layer.render(graphics));
+		layers.forEach(layer -> {
+			RasterRenderer.checkInterrupted();
+			layer.render(graphics);
+		});
+	}
+
+	/**
+	 * Same as {@link #render(Graphics2D)}, but only objects that may paint
+	 * inside area are rendered. graphics should be clipped to area.
+	 */
+	public void render(Graphics2D graphics, Rectangle2D area) {
+		layers.forEach(layer -> {
+			RasterRenderer.checkInterrupted();
+			layer.render(graphics, area);
+		});
 	}
 
 	public DrawLayer getCompartmentBorder() {
@@ -1,6 +1,7 @@
 package org.reactome.server.tools.diagram.exporter.raster.diagram.layers;
 
 import java.awt.*;
+import java.awt.geom.Rectangle2D;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -27,6 +28,16 @@ public class DrawLayer extends CommonLayer {
 		});
 	}
 
+	@Override
+	public void render(Graphics2D graphics, Rectangle2D area) {
+		objects.forEach(object -> {
+			if (!intersects(object.shape, object.stroke, area)) return;
+			graphics.setPaint(object.color);
+			graphics.setStroke(object.stroke);
+			graphics.draw(object.shape);
+		});
+	}
+
 	@Override
 	public void clear() {
 		super.clear();
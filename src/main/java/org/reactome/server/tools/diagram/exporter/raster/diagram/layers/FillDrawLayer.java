@@ -1,6 +1,7 @@
 package org.reactome.server.tools.diagram.exporter.raster.diagram.layers;
 
 import java.awt.*;
+import java.awt.geom.Rectangle2D;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -29,6 +30,18 @@ public class FillDrawLayer extends CommonLayer {
 		}
 	}
 
+	@Override
+	public void render(Graphics2D graphics, Rectangle2D area) {
+		for (DrawObject object : objects) {
+			if (!intersects(object.shape, object.stroke, area)) continue;
+			graphics.setPaint(object.fill);
+			graphics.fill(object.shape);
+			graphics.setPaint(object.border);
+			graphics.setStroke(object.stroke);
+			graphics.draw(object.shape);
+		}
+	}
+
 	@Override
 	public void clear() {
 		super.clear();
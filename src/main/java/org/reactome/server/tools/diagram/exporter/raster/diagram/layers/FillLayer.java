@@ -1,6 +1,9 @@
 package org.reactome.server.tools.diagram.exporter.raster.diagram.layers;
 
 import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -24,12 +27,54 @@ public class FillLayer extends CommonLayer {
 		});
 	}
 
+	@Override
+	public void render(Graphics2D graphics, Rectangle2D area) {
+		objects.forEach(object -> {
+			if (!intersects(object.shape, area)) return;
+			graphics.setPaint(object.color);
+			graphics.fill(object.shape);
+		});
+	}
+
 	@Override
 	public void clear() {
 		super.clear();
 		objects.clear();
 	}
 
+	/**
+	 * Creates a snapshot of this layer, to be compared later with {@link
+	 * #getChanges(FillLayer)}.
+	 */
+	public FillLayer copy() {
+		final FillLayer copy = new FillLayer();
+		objects.forEach(object -> copy.add(object.shape, object.color));
+		return copy;
+	}
+
+	/**
+	 * Compares this layer with a previous state of itself and returns the
+	 * bounds of the shapes whose paint changed. Both layers must contain the
+	 * same shapes in the same order, as the nodeAnalysis layer does between
+	 * expression columns.
+	 *
+	 * @return the bounds of the changed shapes, or null if the layers do not
+	 * have the same number of shapes, so any region may have changed.
+	 */
+	public List<Rectangle2D> getChanges(FillLayer previous) {
+		if (objects.size() != previous.objects.size()) return null;
+		final List<Rectangle2D> changes = new ArrayList<>();
+		final Iterator<DrawObject> it = previous.objects.iterator();
+		for (DrawObject object : objects) {
+			final DrawObject old = it.next();
+			if (!object.color.equals(old.color)) {
+				changes.add(object.shape.getBounds2D());
+				changes.add(old.shape.getBounds2D());
+			}
+		}
+		return changes;
+	}
+
 	private class DrawObject {
 		private final Shape shape;
 		private final Paint color;
@@ -31,6 +31,21 @@ public class ImageLayer extends CommonLayer {
 		);
 	}
 
+	@Override
+	public void render(Graphics2D graphics, Rectangle2D area) {
+		images.forEach(imageLayout -> {
+			final NodeProperties bounds = imageLayout.bounds;
+			if (!intersects(new Rectangle2D.Double(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight()), area))
+				return;
+			graphics.drawImage(imageLayout.image,
+					bounds.getX().intValue(),
+					bounds.getY().intValue(),
+					bounds.getWidth().intValue(),
+					bounds.getHeight().intValue(),
+					null);
+		});
+	}
+
 	@Override
 	public void clear() {
 		super.clear();
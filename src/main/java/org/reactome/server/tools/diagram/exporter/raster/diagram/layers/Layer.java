@@ -13,6 +13,15 @@ public interface Layer {
 
 	void render(Graphics2D graphics);
 
+	/**
+	 * Renders only the objects that may paint inside area. Used to repaint a
+	 * small region of an image, so graphics should be clipped to area.
+	 *
+	 * @param graphics where to render
+	 * @param area     region to repaint, in diagram coordinates
+	 */
+	void render(Graphics2D graphics, Rectangle2D area);
+
 	void clear();
 
 	Rectangle2D getBounds();
@@ -27,17 +27,28 @@ public class TextLayer extends CommonLayer {
 
 	@Override
 	public void render(Graphics2D graphics) {
+		objects.forEach(text -> render(graphics, text));
+	}
+
+	@Override
+	public void render(Graphics2D graphics, Rectangle2D area) {
 		objects.forEach(text -> {
-			graphics.setFont(text.font);
-			graphics.setPaint(text.color);
-			if (text.limits == null) {
-				TextRenderer.drawTextSingleLine(graphics, text.text, text.position);
-			} else {
-				TextRenderer.drawText(graphics, text.text, text.limits, text.padding, text.splitText);
-			}
+			// single line texts have no limits, so they can't be discarded
+			if (text.limits == null || intersects(new Rectangle2D.Double(text.limits.getX(), text.limits.getY(), text.limits.getWidth(), text.limits.getHeight()), area))
+				render(graphics, text);
 		});
 	}
 
+	private void render(Graphics2D graphics, RenderableText text) {
+		graphics.setFont(text.font);
+		graphics.setPaint(text.color);
+		if (text.limits == null) {
+			TextRenderer.drawTextSingleLine(graphics, text.text, text.position);
+		} else {
+			TextRenderer.drawText(graphics, text.text, text.limits, text.padding, text.splitText);
+		}
+	}
+
 	@Override
 	public void clear() {
 		super.clear();
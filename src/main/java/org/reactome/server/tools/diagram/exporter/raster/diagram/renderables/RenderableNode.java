@@ -10,6 +10,7 @@ import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorProfiles;
 
 import java.awt.*;
 import java.awt.geom.Area;
+import java.awt.geom.Rectangle2D;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
@@ -29,6 +30,9 @@ public abstract class RenderableNode extends RenderableObject {
 	private final Area backgroundArea;
 
 	private List<FoundEntity> hitExpressions;
+	// [column][hit], so each column is read without boxing
+	private double[][] expressions;
+	private Area[] expressionAreas;
 	private Double enrichment;
 	private Integer totalExpressions;
 	private Double expressionValue;
@@ -61,6 +65,48 @@ public abstract class RenderableNode extends RenderableObject {
 				.sorted((Comparator.comparing(IdentifierSummary::getId)))
 				.collect(Collectors.toList());
 		this.totalExpressions = hitExpressions.size();
+		final int columns = this.hitExpressions.isEmpty() ? 0 : this.hitExpressions.get(0).getExp().size();
+		this.expressions = new double[columns][this.hitExpressions.size()];
+		for (int i = 0; i < this.hitExpressions.size(); i++) {
+			final List<Double> exp = this.hitExpressions.get(i).getExp();
+			for (int t = 0; t < columns; t++)
+				expressions[t][i] = exp.get(t);
+		}
+		this.expressionAreas = null;
+	}
+
+	/**
+	 * @return the expression values of the hit components in column, sorted
+	 * like {@link #getHitExpressions()}, or null if there is no expression
+	 * data. The returned array must not be modified
+	 */
+	public double[] getExpressions(int column) {
+		if (expressions == null || column >= expressions.length) return null;
+		return expressions[column];
+	}
+
+	/**
+	 * Strips of the hit components, one per hit, clipped to the background
+	 * shape. They are the same for every column, so they are computed the
+	 * first time they are requested, and removed from the background area at
+	 * the same time.
+	 *
+	 * @return the strips, or null if there is no expression data
+	 */
+	public Area[] getExpressionAreas() {
+		if (expressionAreas == null && hitExpressions != null) {
+			final double partSize = node.getProp().getWidth() / totalExpressions;
+			final Area shape = new Area(backgroundShape);
+			expressionAreas = new Area[hitExpressions.size()];
+			for (int i = 0; i < expressionAreas.length; i++) {
+				final Area area = new Area(new Rectangle2D.Double(
+						node.getProp().getX() + i * partSize, node.getProp().getY(), partSize, node.getProp().getHeight()));
+				area.intersect(shape);
+				backgroundArea.subtract(area);
+				expressionAreas[i] = area;
+			}
+		}
+		return expressionAreas;
 	}
 
 	abstract Shape backgroundShape();
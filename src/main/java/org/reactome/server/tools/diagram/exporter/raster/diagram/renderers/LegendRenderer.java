@@ -2,7 +2,6 @@ package org.reactome.server.tools.diagram.exporter.raster.diagram.renderers;
 
 import org.apache.commons.io.IOUtils;
 import org.reactome.server.analysis.core.model.AnalysisType;
-import org.reactome.server.analysis.core.result.model.FoundEntity;
 import org.reactome.server.tools.diagram.data.layout.NodeProperties;
 import org.reactome.server.tools.diagram.data.layout.impl.NodePropertiesFactory;
 import org.reactome.server.tools.diagram.exporter.raster.diagram.common.DiagramAnalysis;
@@ -29,7 +28,6 @@ import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Overlays the legend, the info text and the logo to the diagram.
@@ -41,8 +39,9 @@ public class LegendRenderer {
 	private static final int LEGEND_TO_DIAGRAM_SPACE = 15;
 	private static final int LEGEND_WIDTH = 70;
 	private static final int LEGEND_HEIGHT = 350;
-	private static final DecimalFormat EXPRESSION_FORMAT = new DecimalFormat("#.##E0", DecimalFormatSymbols.getInstance(Locale.UK));
-	private static final DecimalFormat ENRICHMENT_FORMAT = new DecimalFormat("#.##", DecimalFormatSymbols.getInstance(Locale.UK));
+	// DecimalFormat is not thread safe
+	private static final ThreadLocal<DecimalFormat> EXPRESSION_FORMAT = ThreadLocal.withInitial(() -> new DecimalFormat("#.##E0", DecimalFormatSymbols.getInstance(Locale.UK)));
+	private static final ThreadLocal<DecimalFormat> ENRICHMENT_FORMAT = ThreadLocal.withInitial(() -> new DecimalFormat("#.##", DecimalFormatSymbols.getInstance(Locale.UK)));
 	/** value to create ticks arrows */
 	private static final int ARROW_SIZE = 5;
 	/** space between texts and color bar */
@@ -208,22 +207,20 @@ public class LegendRenderer {
 				drawTick(value, StrokeStyle.SEGMENT.get(false), profiles.getDiagramSheet().getProperties().getSelection());
 			} else {
 				// The rest of the world
-				final List<FoundEntity> expressions = node.getHitExpressions();
-				if (expressions == null || expressions.isEmpty()) continue;
+				final double[] expressions = node.getExpressions(col);
+				if (expressions == null || expressions.length == 0) continue;
 				// Calculate which ticks to draw: (min, median, max) or (value)
 				Double nMax;
 				Double nMin;
 				Double nValue;
-				final List<Double> values = expressions.stream()
-						.map(value -> value.getExp().get(col))
-						.collect(Collectors.toList());
-				if (values.size() == 1) {
-					nValue = values.get(0);
+				if (expressions.length == 1) {
+					nValue = expressions[0];
 					nMax = nMin = null;
 				} else {
-					Collections.sort(values);
-					nMin = values.get(0);
-					nMax = values.get(values.size() - 1);
+					final double[] values = expressions.clone();
+					Arrays.sort(values);
+					nMin = values[0];
+					nMax = values[values.length - 1];
 					nValue = getMedian(values);
 				}
 
@@ -249,11 +246,11 @@ public class LegendRenderer {
 	 * it is odd, then the mean of the two values sharing the centre is
 	 * returned.
 	 */
-	private double getMedian(List<Double> values) {
-		final int midPoint = values.size() / 2;
-		if (values.size() % 2 == 0)
-			return (values.get(midPoint) + values.get(midPoint - 1)) * 0.5;
-		else return values.get(midPoint);
+	private double getMedian(double[] values) {
+		final int midPoint = values.length / 2;
+		if (values.length % 2 == 0)
+			return (values[midPoint] + values[midPoint - 1]) * 0.5;
+		else return values[midPoint];
 	}
 
 	private void drawTick(Double value, Stroke stroke, Color limitColor) {
@@ -295,11 +292,11 @@ public class LegendRenderer {
 		final String topText;
 		final String bottomText;
 		if (index.getAnalysis().getType() == AnalysisType.EXPRESSION) {
-			topText = EXPRESSION_FORMAT.format(index.getAnalysis().getResult().getExpression().getMax());
-			bottomText = EXPRESSION_FORMAT.format(index.getAnalysis().getResult().getExpression().getMin());
+			topText = EXPRESSION_FORMAT.get().format(index.getAnalysis().getResult().getExpression().getMax());
+			bottomText = EXPRESSION_FORMAT.get().format(index.getAnalysis().getResult().getExpression().getMin());
 		} else {
-			topText = ENRICHMENT_FORMAT.format(0);
-			bottomText = ENRICHMENT_FORMAT.format(DiagramAnalysis.MIN_ENRICHMENT);
+			topText = ENRICHMENT_FORMAT.get().format(0);
+			bottomText = ENRICHMENT_FORMAT.get().format(DiagramAnalysis.MIN_ENRICHMENT);
 		}
 		canvas.getLegendText().add(topText, Color.BLACK, top, 0, 0, FontProperties.DEFAULT_FONT);
 		canvas.getLegendText().add(bottomText, Color.BLACK, bottom, 0, 0, FontProperties.DEFAULT_FONT);
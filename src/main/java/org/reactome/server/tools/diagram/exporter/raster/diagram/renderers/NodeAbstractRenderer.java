@@ -1,6 +1,5 @@
 package org.reactome.server.tools.diagram.exporter.raster.diagram.renderers;
 
-import org.reactome.server.analysis.core.result.model.FoundEntity;
 import org.reactome.server.tools.diagram.data.layout.NodeProperties;
 import org.reactome.server.tools.diagram.exporter.raster.diagram.common.DiagramIndex;
 import org.reactome.server.tools.diagram.exporter.raster.diagram.common.FontProperties;
@@ -17,7 +16,6 @@ import java.awt.*;
 import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Basic node renderer. All renderers that render nodes should override it. To
@@ -108,35 +106,18 @@ public abstract class NodeAbstractRenderer extends ObjectRenderer {
 	 * white.
 	 */
 	public double expression(RenderableNode renderableNode, DiagramCanvas canvas, DiagramIndex index, ColorProfiles colorProfiles, int t) {
-		final List<FoundEntity> expressions = renderableNode.getHitExpressions();
+		final Area[] areas = renderableNode.getExpressionAreas();
 		double textSplit = 0.0;
-		if (expressions != null) {
-			final List<Double> values = expressions.stream()
-					.map(participant -> participant.getExp().get(t))
-					.collect(Collectors.toList());
-			final int size = renderableNode.getTotalExpressions();
-
-			final NodeProperties prop = renderableNode.getNode().getProp();
-			final double x = prop.getX();
-			final double y = prop.getY();
-			final double height = prop.getHeight();
-			final double partSize = prop.getWidth() / size;
-			textSplit = (double) values.size() / size;
-
+		if (areas != null) {
+			textSplit = (double) areas.length / renderableNode.getTotalExpressions();
+			final double[] values = renderableNode.getExpressions(t);
 			final double max = index.getAnalysis().getResult().getExpression().getMax();
 			final double min = index.getAnalysis().getResult().getExpression().getMin();
 			final double delta = 1 / (max - min);  // only one division
-			for (int i = 0; i < values.size(); i++) {
-				final double val = values.get(i);
-				final double scale = 1 - (val - min) * delta;
-				final GradientSheet gradient = colorProfiles.getAnalysisSheet().getExpression().getGradient();
-				final Color color = ColorFactory.interpolate(gradient, scale);
-				final Rectangle2D rect = new Rectangle2D.Double(
-						x + i * partSize, y, partSize, height);
-				final Area expressionArea = new Area(rect);
-				expressionArea.intersect(new Area(renderableNode.getBackgroundShape()));
-				canvas.getNodeAnalysis().add(expressionArea, color);
-				renderableNode.getBackgroundArea().subtract(expressionArea);
+			final GradientSheet gradient = colorProfiles.getAnalysisSheet().getExpression().getGradient();
+			for (int i = 0; i < areas.length; i++) {
+				final double scale = 1 - (values[i] - min) * delta;
+				canvas.getNodeAnalysis().add(areas[i], ColorFactory.interpolate(gradient, scale));
 			}
 		}
 		if (this instanceof SetRenderer || this instanceof ComplexRenderer)
@@ -77,7 +77,7 @@ public class ProteinRenderer extends NodeAbstractRenderer {
 				|| renderableNode.getHitExpressions().isEmpty()) {
 			return renderableNode.getColorProfile(colorProfiles).getLighterFill();
 		} else {
-			final double exp = renderableNode.getHitExpressions().get(0).getExp().get(t);
+			final double exp = renderableNode.getExpressions(t)[0];
 			final double min = index.getAnalysis().getResult().getExpression().getMin();
 			final double max = index.getAnalysis().getResult().getExpression().getMax();
 			final double value = 1 - (exp - min) / (max - min);
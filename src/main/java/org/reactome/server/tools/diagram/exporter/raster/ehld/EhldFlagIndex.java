@@ -0,0 +1,142 @@
+package org.reactome.server.tools.diagram.exporter.raster.ehld;
+
+import org.reactome.server.tools.diagram.data.graph.EntityNode;
+import org.reactome.server.tools.diagram.data.graph.EventNode;
+import org.reactome.server.tools.diagram.data.graph.Graph;
+import org.reactome.server.tools.diagram.data.graph.SubpathwayNode;
+import org.reactome.server.tools.diagram.exporter.common.ResourcesFactory;
+import org.reactome.server.tools.diagram.exporter.common.profiles.factory.DiagramJsonDeserializationException;
+import org.reactome.server.tools.diagram.exporter.common.profiles.factory.DiagramJsonNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Resolves which regions of an EHLD contain a flagged entity using the graph
+ * files of the diagrams, instead of asking the ContentService. A region is
+ * resolved with its own graph file if it has a diagram, or with the
+ * subpathway of the same stId in the graph of the EHLD pathway. Entities are
+ * indexed by dbId, stId, identifier and gene names. Components of complexes
+ * and members of sets are in the regions of their containers.
+ * <p>
+ * Indexes are built once per EHLD and kept while the graph files do not
+ * change.
+ */
+class EhldFlagIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger("infoLogger");
+	private static final Map<String, EhldFlagIndex> INDEXES = new ConcurrentHashMap<>();
+
+	private final Set<String> pathways;
+	/** Last modification time and length of the graph files that were read */
+	private final Map<File, List<Long>> files = new HashMap<>();
+	private final Map<String, Set<String>> regions = new HashMap<>();
+	private boolean resolved = true;
+
+	private EhldFlagIndex(Collection<String> pathways) {
+		this.pathways = new HashSet<>(pathways);
+	}
+
+	/**
+	 * @param pathways stIds of the regions of the EHLD
+	 * @return the index of the EHLD stId, or null if any of the regions
+	 * cannot be resolved with the files in diagramPath
+	 */
+	static EhldFlagIndex get(String diagramPath, String stId, Collection<String> pathways) {
+		final String key = new File(diagramPath, stId).getPath();
+		final EhldFlagIndex index = INDEXES.get(key);
+		if (index != null && index.isValid(pathways)) return index.resolved ? index : null;
+		// unresolved EHLDs are also cached, so their files are not read again
+		final EhldFlagIndex created = create(diagramPath, stId, pathways);
+		INDEXES.put(key, created);
+		return created.resolved ? created : null;
+	}
+
+	private static EhldFlagIndex create(String diagramPath, String stId, Collection<String> pathways) {
+		final EhldFlagIndex index = new EhldFlagIndex(pathways);
+		Graph parent = null;
+		for (String pathway : pathways) {
+			final Graph graph = index.getGraph(diagramPath, pathway);
+			if (graph != null) {
+				graph.getNodes().forEach(node -> index.add(node, pathway));
+				continue;
+			}
+			if (parent == null) parent = index.getGraph(diagramPath, stId);
+			final SubpathwayNode subpathway = parent == null ? null : parent.getSubpathways().stream()
+					.filter(node -> pathway.equals(node.getStId()))
+					.findFirst().orElse(null);
+			if (subpathway == null) {
+				logger.debug("Region {} of {} not found in {}", pathway, stId, diagramPath);
+				index.resolved = false;
+				index.regions.clear();
+				return index;
+			}
+			index.addSubpathway(parent, subpathway, pathway);
+		}
+		return index;
+	}
+
+	private Graph getGraph(String diagramPath, String stId) {
+		final File file = new File(diagramPath, stId + ".graph.json");
+		// missing files are also checked, they may be created later
+		files.put(file, stamp(file));
+		if (!file.exists()) return null;
+		try {
+			return ResourcesFactory.getGraph(diagramPath, stId);
+		} catch (DiagramJsonDeserializationException | DiagramJsonNotFoundException e) {
+			return null;
+		}
+	}
+
+	private void addSubpathway(Graph graph, SubpathwayNode subpathway, String region) {
+		final Map<Long, EntityNode> nodes = new HashMap<>();
+		graph.getNodes().forEach(node -> nodes.put(node.getDbId(), node));
+		final Set<Long> events = new HashSet<>(subpathway.getEvents());
+		final Deque<Long> participants = new ArrayDeque<>();
+		for (EventNode event : graph.getEdges()) {
+			if (!events.contains(event.getDbId())) continue;
+			Stream.of(event.getInputs(), event.getOutputs(), event.getCatalysts(), event.getActivators(), event.getInhibitors())
+					.filter(Objects::nonNull)
+					.forEach(participants::addAll);
+		}
+		// participants and everything inside them
+		final Set<Long> visited = new HashSet<>();
+		while (!participants.isEmpty()) {
+			final EntityNode node = nodes.get(participants.pop());
+			if (node == null || !visited.add(node.getDbId())) continue;
+			add(node, region);
+			if (node.getChildren() != null) participants.addAll(node.getChildren());
+		}
+	}
+
+	private void add(EntityNode node, String region) {
+		put(String.valueOf(node.getDbId()), region);
+		put(node.getStId(), region);
+		put(node.getIdentifier(), region);
+		if (node.getGeneNames() != null) node.getGeneNames().forEach(name -> put(name, region));
+	}
+
+	private void put(String key, String region) {
+		if (key != null) regions.computeIfAbsent(key.toLowerCase(Locale.ROOT), k -> new HashSet<>()).add(region);
+	}
+
+	private boolean isValid(Collection<String> pathways) {
+		return this.pathways.equals(new HashSet<>(pathways))
+				&& files.entrySet().stream().allMatch(entry -> entry.getValue().equals(stamp(entry.getKey())));
+	}
+
+	private static List<Long> stamp(File file) {
+		return Arrays.asList(file.lastModified(), file.length());
+	}
+
+	/**
+	 * @return the stIds of the regions that contain term
+	 */
+	Set<String> getRegions(String term) {
+		return regions.getOrDefault(term.toLowerCase(Locale.ROOT), Collections.emptySet());
+	}
+}
@@ -0,0 +1,106 @@
+package org.reactome.server.tools.diagram.exporter.raster.ehld;
+
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.gvt.GraphicsNode;
+import org.reactome.server.tools.diagram.exporter.common.ResourcesFactory;
+import org.reactome.server.tools.diagram.exporter.raster.ehld.exception.EhldException;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.svg.SVGDocument;
+import org.w3c.dom.svg.SVGElement;
+
+import java.awt.geom.Rectangle2D;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.batik.util.SVGConstants.*;
+import static org.reactome.server.tools.diagram.exporter.raster.ehld.SvgAnalysis.ANALINFO;
+import static org.reactome.server.tools.diagram.exporter.raster.ehld.SvgAnalysis.REGION_;
+
+/**
+ * Geometry of an EHLD that does not depend on the analysis: the pathways with
+ * a REGION and the bounds of their ANALINFO boxes. Getting the bounds requires
+ * building the GVT tree of the whole EHLD, so indexes are computed once per
+ * EHLD and kept in memory while its file does not change.
+ */
+class EhldIndex {
+
+	private static final Map<File, EhldIndex> INDEXES = new ConcurrentHashMap<>();
+
+	private final long lastModified;
+	private final long length;
+	private final List<String> pathways = new ArrayList<>();
+	private final Map<String, Rectangle2D> analysisInfoBounds = new HashMap<>();
+
+	private EhldIndex(long lastModified, long length, SVGDocument document) {
+		this.lastModified = lastModified;
+		this.length = length;
+		// The builder modifies the document, but this one is only used here
+		final BridgeContext context = new BridgeContext(new UserAgentAdapter());
+		final GVTBuilder builder = new GVTBuilder();
+		builder.build(context, document);
+		final NodeList groups = document.getRootElement().getElementsByTagNameNS(SVG_NAMESPACE_URI, SVG_G_TAG);
+		for (int i = 0; i < groups.getLength(); i++) {
+			if (!(groups.item(i) instanceof SVGElement)) continue;
+			final SVGElement region = (SVGElement) groups.item(i);
+			if (!region.getId().startsWith(REGION_)) continue;
+			final String stId = region.getId().substring(REGION_.length());
+			pathways.add(stId);
+			final Element analysisInfo = getAnalysisInfo(region);
+			if (analysisInfo == null) continue;
+			final GraphicsNode box = builder.build(context, analysisInfo);
+			if (box != null && box.getSensitiveBounds() != null)
+				analysisInfoBounds.put(stId, box.getSensitiveBounds());
+		}
+		context.dispose();
+	}
+
+	/**
+	 * @return the index of the EHLD of stId, computing it if it is not cached
+	 * or its file has changed
+	 */
+	static EhldIndex get(String ehldPath, String stId) throws EhldException {
+		final File file = new File(ehldPath, stId + ".svg");
+		// read before parsing, so changes while parsing are detected next time
+		final long lastModified = file.lastModified();
+		final long length = file.length();
+		final EhldIndex index = INDEXES.get(file);
+		if (index != null && index.lastModified == lastModified && index.length == length)
+			return index;
+		final EhldIndex created = new EhldIndex(lastModified, length, ResourcesFactory.getEhld(ehldPath, stId));
+		INDEXES.put(file, created);
+		return created;
+	}
+
+	/**
+	 * @return the first child of region with an ANALINFO id, or null
+	 */
+	static Element getAnalysisInfo(Element region) {
+		final NodeList children = region.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			final Node child = children.item(i);
+			if (child instanceof Element && ((Element) child).getAttribute(SVG_ID_ATTRIBUTE).startsWith(ANALINFO))
+				return (Element) child;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the stIds of the pathways with a REGION, in document order
+	 */
+	List<String> getPathways() {
+		return Collections.unmodifiableList(pathways);
+	}
+
+	/**
+	 * @return the sensitive bounds of the ANALINFO box of pathway stId, in
+	 * the user space of the box, or null if it has none
+	 */
+	Rectangle2D getAnalysisInfoBounds(String stId) {
+		return analysisInfoBounds.get(stId);
+	}
+}
@@ -1,12 +1,15 @@
 package org.reactome.server.tools.diagram.exporter.raster.ehld;
 
-import org.apache.batik.transcoder.TranscoderException;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.TranscoderOutput;
-import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.BridgeException;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.gvt.GraphicsNode;
 import org.reactome.server.analysis.core.model.AnalysisType;
 import org.reactome.server.analysis.core.result.AnalysisStoredResult;
 import org.reactome.server.tools.diagram.exporter.common.ResourcesFactory;
+import org.reactome.server.tools.diagram.exporter.raster.RasterPool;
 import org.reactome.server.tools.diagram.exporter.raster.RasterRenderer;
 import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
 import org.reactome.server.tools.diagram.exporter.raster.ehld.exception.EhldException;
@@ -41,18 +44,30 @@ public class EhldRenderer implements RasterRenderer {
 	private final RasterArgs args;
 	private SvgAnalysis svgAnalysis;
 	private AnalysisStoredResult result;
+	private GraphicsNode root;
+	private BridgeContext context;
 
 	public EhldRenderer(RasterArgs args, String ehldPath, AnalysisStoredResult result) throws EhldException {
+		this(args, ehldPath, null, result);
+	}
+
+	/**
+	 * @param diagramPath if not null, flags are resolved with the graph files
+	 *                    in this path, without calling the ContentService
+	 */
+	public EhldRenderer(RasterArgs args, String ehldPath, String diagramPath, AnalysisStoredResult result) throws EhldException {
 		this.result = result;
 		this.document = ResourcesFactory.getEhld(ehldPath, args.getStId());
 		this.args = args;
-		layout();
+		layout(diagramPath, result == null ? null : EhldIndex.get(ehldPath, args.getStId()));
 	}
 
-	private void layout() {
-		SvgDecoratorRenderer.selectAndFlag(document, args);
-		svgAnalysis = new SvgAnalysis(document, args, result);
+	private void layout(String diagramPath, EhldIndex index) {
+		SvgDecoratorRenderer.selectAndFlag(document, args, diagramPath);
+		RasterRenderer.checkInterrupted();
+		svgAnalysis = new SvgAnalysis(document, args, result, index);
 		svgAnalysis.analysis();
+		RasterRenderer.checkInterrupted();
 		fixFont();
 		updateDocumentDimensions();
 	}
@@ -87,17 +102,29 @@ public class EhldRenderer implements RasterRenderer {
 
 	@Override
 	public Dimension getDimension() {
-		final String viewBox = document.getRootElement().getAttribute(SVG_VIEW_BOX_ATTRIBUTE);
-		final String[] values = viewBox.split(" ");
-		final double width = Double.valueOf(values[2]);
-		final double height = Double.valueOf(values[3]);
+		// width and height already include the factor
+		final double width = Double.valueOf(document.getRootElement().getAttribute(SVG_WIDTH_ATTRIBUTE));
+		final double height = Double.valueOf(document.getRootElement().getAttribute(SVG_HEIGHT_ATTRIBUTE));
 		return new Dimension((int) (width + 0.5), (int) (height + 0.5));
 	}
 
+	@Override
+	public long getMemoryEstimate(boolean animated) {
+		final Dimension dimension = getDimension();
+		final long pixels = (long) dimension.width * dimension.height;
+		// the GVT tree is painted directly into our image. Frames are also
+		// converted by the encoder
+		return animated ? 8 * pixels : 4 * pixels;
+	}
+
 	@Override
 	public BufferedImage render() {
 		disableMasks();
-		return rasterize();
+		try {
+			return rasterize();
+		} finally {
+			disposeTree();
+		}
 	}
 
 	private void disableMasks() {
@@ -161,18 +188,57 @@ public class EhldRenderer implements RasterRenderer {
 	}
 
 	/**
-	 * Generates a raster from document.
+	 * Generates a raster from document. The GVT tree is built only the first
+	 * time, in a dynamic context, so Batik applies later changes of the
+	 * document, such as the colors of a new expression column, to the tree
+	 * instead of building it again. Call {@link #disposeTree()} once the
+	 * last raster is generated.
 	 */
 	private BufferedImage rasterize() {
-		try {
-			final TranscoderInput input = new TranscoderInput(document);
-			final BufferedImageTranscoder transcoder = new BufferedImageTranscoder(args);
-
-			transcoder.transcode(input, null);
-			return transcoder.getImage();
-		} catch (TranscoderException e) {
-			throw new EhldRuntimeException(e.getMessage());
+		if (root == null) {
+			context = new BridgeContext(new UserAgentAdapter());
+			context.setDynamicState(BridgeContext.DYNAMIC);
+			try {
+				root = new GVTBuilder().build(context, document);
+			} catch (BridgeException e) {
+				throw new EhldRuntimeException(e.getMessage());
+			}
 		}
+		final Dimension dimension = getDimension();
+		final BufferedImage image = createImage(dimension.width, dimension.height);
+		final Graphics2D graphics = GraphicsUtil.createGraphics(image);
+		// same hints as the Batik renderer
+		graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		// width and height of the document already include the factor
+		root.paint(graphics);
+		graphics.dispose();
+		return image;
+	}
+
+	/**
+	 * The dynamic context listens to the changes of the document, so it must
+	 * be disposed to release the document and the GVT tree.
+	 */
+	private void disposeTree() {
+		if (context != null) context.dispose();
+		context = null;
+		root = null;
+	}
+
+	private BufferedImage createImage(int width, int height) {
+		final String format = args.getFormat();
+		if (TRANSPARENT_FORMATS.contains(format)) {
+			return RasterPool.acquire(width, height, BufferedImage.TYPE_INT_ARGB);
+		} else if (NO_TRANSPARENT_FORMATS.contains(format)) {
+			final BufferedImage image = RasterPool.acquire(width, height, BufferedImage.TYPE_INT_RGB);
+			final Graphics2D graphics = image.createGraphics();
+			graphics.setBackground(args.getBackground() == null ? Color.WHITE : args.getBackground());
+			graphics.clearRect(0, 0, image.getWidth(), image.getHeight());
+			graphics.dispose();
+			return image;
+		} else
+			throw new IllegalArgumentException("Unsupported file extension " + format);
 	}
 
 	@Override
@@ -185,10 +251,20 @@ public class EhldRenderer implements RasterRenderer {
 		encoder.setDelay(1000);
 		encoder.setRepeat(0);
 		encoder.start(os);
-		for (int expressionColumn = 0; expressionColumn < svgAnalysis.getExpressionSummary().getColumnNames().size(); expressionColumn++) {
-			svgAnalysis.setColumn(expressionColumn);
-			final BufferedImage image = rasterize();
-			encoder.addFrame(image);
+		try {
+			for (int expressionColumn = 0; expressionColumn < svgAnalysis.getExpressionSummary().getColumnNames().size(); expressionColumn++) {
+				RasterRenderer.checkInterrupted();
+				// only the overlay fills, legend ticks and bottom text change,
+				// the GVT tree is updated by Batik
+				svgAnalysis.setColumn(expressionColumn);
+				final BufferedImage image = rasterize();
+				encoder.addFrame(image);
+				// frames are converted by the encoder, so the image can be
+				// reused
+				RasterPool.release(image);
+			}
+		} finally {
+			disposeTree();
 		}
 		encoder.finish();
 	}
@@ -197,46 +273,4 @@ public class EhldRenderer implements RasterRenderer {
 	public SVGDocument renderToSvg() {
 		return document;
 	}
-
-	/**
-	 * There is no a standard BufferedImageTranscoder, although all Transcorders
-	 * use BufferedImages as the raster. This class exposes that BufferedImage,
-	 * so ther is no need to store them in a File.
-	 */
-	private static class BufferedImageTranscoder extends ImageTranscoder {
-
-		private BufferedImage image;
-		private String format;
-		private Color background;
-
-		BufferedImageTranscoder(RasterArgs args) {
-			this.background = args.getBackground() == null
-					? Color.WHITE
-					: args.getBackground();
-			this.format = args.getFormat();
-		}
-
-		@Override
-		public BufferedImage createImage(int w, int h) {
-			if (TRANSPARENT_FORMATS.contains(format)) {
-				return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
-			} else if (NO_TRANSPARENT_FORMATS.contains(format)) {
-				final BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-				final Graphics2D graphics = image.createGraphics();
-				graphics.setBackground(background);
-				graphics.clearRect(0, 0, image.getWidth(), image.getHeight());
-				return image;
-			} else
-				throw new IllegalArgumentException("Unsupported file extension " + format);
-		}
-
-		@Override
-		public void writeImage(BufferedImage image, TranscoderOutput output) throws TranscoderException {
-			this.image = image;
-		}
-
-		public BufferedImage getImage() {
-			return image;
-		}
-	}
 }
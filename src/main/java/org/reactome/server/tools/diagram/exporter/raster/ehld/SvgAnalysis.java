@@ -1,21 +1,15 @@
 package org.reactome.server.tools.diagram.exporter.raster.ehld;
 
-import org.apache.batik.bridge.BridgeContext;
-import org.apache.batik.bridge.GVTBuilder;
-import org.apache.batik.bridge.UserAgentAdapter;
-import org.apache.batik.gvt.GraphicsNode;
 import org.reactome.server.analysis.core.model.AnalysisType;
 import org.reactome.server.analysis.core.result.AnalysisStoredResult;
 import org.reactome.server.analysis.core.result.model.*;
 import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
 import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorFactory;
 import org.reactome.server.tools.diagram.exporter.raster.profiles.GradientSheet;
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.svg.SVGDocument;
-import org.w3c.dom.svg.SVGElement;
 
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
@@ -27,7 +21,6 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import static org.apache.batik.util.SVGConstants.*;
 
@@ -44,27 +37,23 @@ public class SvgAnalysis {
 	private static final String OVERLAY_CLONE_ = "OVERLAYCLONE-";
 	private static final String CLIPPING_PATH = "CLIPPINGPATH-";
 	private static final String OVERLAY_ = "OVERLAY-";
-	private static final String ANALINFO = "ANALINFO";
+	static final String ANALINFO = "ANALINFO";
 	private static final String ANALYSIS_INFO_CLASS = "ST-ANALYSIS-INFO";
 	private static final double MIN_OVERLAY_CLIP = 0.05;
 	private static final String HIT_BASIS_STROKE_COLOUR = "#000000";
 	private static final String HIT_BASIS_STROKE_WIDTH = "0.5";
-	private static final DecimalFormat NUMBER_FORMAT = new DecimalFormat("#.##E0", DecimalFormatSymbols.getInstance(Locale.UK));
+	// DecimalFormat is not thread safe
+	private static final ThreadLocal<DecimalFormat> NUMBER_FORMAT = ThreadLocal.withInitial(() -> new DecimalFormat("#.##E0", DecimalFormatSymbols.getInstance(Locale.UK)));
 	private static final Color DEFAULT_OVERLAY_COLOR = new Color(194, 194, 194);
 	private static final double OVERLAY_OPACITY = 0.9;
-	private final static GVTBuilder builder = new GVTBuilder();
-	private final static BridgeContext context = new BridgeContext(new UserAgentAdapter());
 	private static final String BOTTOM_TEXT = "bottom-text";
-	/*
-	 * If you are asking why there is a cloned Document here, the short answer
-	 * is: text centering. The long answer is that we are using a builder to
-	 * calculate centers, but the builder, somehow is breaking the original
-	 * document. So we have created a copy of the document just to calculate the
-	 * centers of the ANALINFO boxes.
-	 */
-	private static Document cloned;
 	private final SVGDocument document;
 	private final RasterArgs args;
+	/*
+	 * Texts are centered in the ANALINFO boxes. Their centers are taken from
+	 * the index, so there is no need to build the document.
+	 */
+	private final EhldIndex index;
 	private AnalysisStoredResult result;
 	private Map<String, EntityStatistics> entityStats;
 	private AnalysisType analysisType;
@@ -72,10 +61,11 @@ public class SvgAnalysis {
 	private String resource;
 	private AnalysisResult summary;
 
-	SvgAnalysis(SVGDocument document, RasterArgs args, AnalysisStoredResult result) {
+	SvgAnalysis(SVGDocument document, RasterArgs args, AnalysisStoredResult result, EhldIndex index) {
 		this.document = document;
 		this.args = args;
 		this.result = result;
+		this.index = index;
 		collectAnalysisResult();
 	}
 
@@ -95,11 +85,8 @@ public class SvgAnalysis {
 		this.resource = getResource();
 		analysisType = AnalysisType.getType(result.getSummary().getType());
 		summary = result.getResultSummary(resource);
-		final List<String> regions = getRegions();
-		if (regions.isEmpty()) return;
-		pathways = regions.stream()
-				.map(id -> id.substring(REGION_.length()))
-				.collect(Collectors.toList());
+		pathways = index.getPathways();
+		if (pathways.isEmpty()) return;
 		entityStats = getStats();
 
 	}
@@ -131,12 +118,6 @@ public class SvgAnalysis {
 		final GradientSheet gradient = args.getProfiles().getAnalysisSheet().getEnrichment().getGradient();
 		SvgLegendRenderer.legend(document, gradient, 0, MAX_P_VALUE, AnalysisType.OVERREPRESENTATION);
 
-		// Calculate document dimensions
-		// Must be done to get children dimensions
-		// We use a clone because this method modifies the document
-		cloned = (Document) document.cloneNode(true);
-		builder.build(context, cloned);
-
 		pathways.forEach(s -> {
 			final EntityStatistics stats = entityStats.getOrDefault(s, null);
 			overlayEnrichment(s, stats);
@@ -152,11 +133,6 @@ public class SvgAnalysis {
 		SvgLegendRenderer.legend(document, gradient, summary.getExpression().getMax(), summary.getExpression().getMin(), AnalysisType.EXPRESSION);
 		addBottomTextGroup();
 
-		// Analysis info text is centered to ANALINFO group. To get the
-		// center of each ANALINFO group we must build the whole document.
-		cloned = (Document) document.cloneNode(true);
-		builder.build(context, cloned);
-
 		pathways.forEach(stId -> {
 			final EntityStatistics stats = entityStats.getOrDefault(stId, null);
 			overlayExpression(stId, stats, summary.getExpression());
@@ -164,17 +140,6 @@ public class SvgAnalysis {
 		});
 	}
 
-	private List<String> getRegions() {
-		final NodeList groups = document.getRootElement().getElementsByTagNameNS(SVG_NAMESPACE_URI, SVG_G_TAG);
-		return IntStream.range(0, groups.getLength())
-				.mapToObj(groups::item)
-				.filter(SVGElement.class::isInstance)
-				.map(SVGElement.class::cast)
-				.map(SVGElement::getId)
-				.filter(id -> id.startsWith(REGION_))
-				.collect(Collectors.toList());
-	}
-
 	private void overlayEnrichment(String stId, EntityStatistics stats) {
 		double percentage;
 		double pValue;
@@ -316,22 +281,17 @@ public class SvgAnalysis {
 	private void analysisInfo(String stId, EntityStatistics stats) {
 		if (stats == null) return;
 		final Element region = document.getElementById(REGION_ + stId);
-		streamChildren(region)
-				.filter(Element.class::isInstance)
-				.map(Element.class::cast)
-				.filter(element -> element.getAttribute(SVG_ID_ATTRIBUTE).startsWith(ANALINFO))
-				.findFirst()
-				.ifPresent(analysisInfo -> {
-					makeVisible(analysisInfo);
-					setAnalysisInfoText(analysisInfo, stats);
-				});
+		final Element analysisInfo = EhldIndex.getAnalysisInfo(region);
+		if (analysisInfo == null) return;
+		makeVisible(analysisInfo);
+		setAnalysisInfoText(analysisInfo, stats, index.getAnalysisInfoBounds(stId));
 	}
 
 	private void makeVisible(Element analysisInfo) {
 		SvgUtil.addClass(analysisInfo, ANALYSIS_INFO_CLASS);
 	}
 
-	private void setAnalysisInfoText(Element element, EntityStatistics entities) {
+	private void setAnalysisInfoText(Element element, EntityStatistics entities, Rectangle2D box) {
 		final NodeList texts = element.getElementsByTagName(SVG_TEXT_TAG);
 		if (texts.getLength() == 0) return;
 		final Element text = (Element) texts.item(0);
@@ -339,17 +299,15 @@ public class SvgAnalysis {
 		final Integer found = entities.getFound();
 		final Integer total = entities.getTotal();
 		String msg = String.format("Hit: %d/%d - FDR: %s", found, total,
-				NUMBER_FORMAT.format(entities.getFdr()));
+				NUMBER_FORMAT.get().format(entities.getFdr()));
 		text.setTextContent(msg);
+		if (box == null) return;
 
 		// Center text
-		final Element clonedElement = cloned.getElementById(element.getAttribute(SVG_ID_ATTRIBUTE));
-		final GraphicsNode box = builder.build(context, clonedElement);
-
-		double centerX = box.getSensitiveBounds().getCenterX();
+		double centerX = box.getCenterX();
 		// Vertical centering must be done manually, since BATIK does not
 		// support aligment-baseline either dominant-baseline
-		double centerY = box.getSensitiveBounds().getCenterY() + TEXT_V_ALIGN;
+		double centerY = box.getCenterY() + TEXT_V_ALIGN;
 
 		text.removeAttribute(SVG_TRANSFORM_ATTRIBUTE);
 		text.setAttribute(SVG_TEXT_ANCHOR_ATTRIBUTE, SVG_MIDDLE_VALUE);
@@ -357,11 +315,6 @@ public class SvgAnalysis {
 		text.setAttribute(SVG_Y_ATTRIBUTE, String.valueOf(centerY));
 	}
 
-	private Stream<Node> streamChildren(Element element) {
-		return IntStream.range(0, element.getChildNodes().getLength())
-				.mapToObj(element.getChildNodes()::item);
-	}
-
 	/**
 	 * Change the visible expression column. This will modify the color of the
 	 * OVERLAY areas and the ticks in the legend.
@@ -375,8 +328,7 @@ public class SvgAnalysis {
 			final Element overlay = document.getElementById(OVERLAY_CLONE_ + id);
 			if (stats.getpValue() <= MAX_P_VALUE && value >= expression.getMin() && value <= expression.getMax()) {
 				double val = 1 - (value - expression.getMin()) / (expression.getMax() - expression.getMin());
-				final Color color = ColorFactory.interpolate(gradient, val);
-				overlay.setAttribute(SVG_FILL_ATTRIBUTE, ColorFactory.hex(color));
+				overlay.setAttribute(SVG_FILL_ATTRIBUTE, gradient.getHex(val));
 				if (args.getSelected() != null && args.getSelected().contains(id)) {
 					final Color selection = args.getProfiles().getDiagramSheet().getProperties().getSelection();
 					SvgLegendRenderer.tick(document, val, selection);
@@ -2,11 +2,9 @@ package org.reactome.server.tools.diagram.exporter.raster.ehld;
 
 import org.apache.batik.util.SVGConstants;
 import org.reactome.server.tools.diagram.exporter.common.content.ContentServiceClient;
-import org.reactome.server.tools.diagram.exporter.common.content.ContentServiceResponse;
 import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorFactory;
+import org.w3c.dom.*;
 import org.w3c.dom.svg.SVGDocument;
 import org.w3c.dom.svg.SVGElement;
 
@@ -24,11 +22,23 @@ class SvgDecoratorRenderer {
 	private static final String SELECTION_FILTER = "selection-filter";
 	private static final String FLAG_FILTER = "flag-filter";
 	private static final String SELECTION_FLAG_FILTER = "selection-flag-filter";
-
-	static void selectAndFlag(SVGDocument document, RasterArgs args) {
+	private static final double SELECTION_WIDTH = 4;
+	private static final double FLAG_WIDTH = 7;
+	private static final String HALO_ = "HALO-";
+	private static final String SELECTION_HALO_CLASS = "ST-SELECTION-HALO";
+	private static final String FLAG_HALO_CLASS = "ST-FLAG-HALO";
+
+	/**
+	 * @param diagramPath where to look for the graphs of the regions to
+	 *                    resolve the flags, see {@link EhldFlagIndex}. If
+	 *                    null, or the regions cannot be resolved, the
+	 *                    ContentService is used.
+	 */
+	static void selectAndFlag(SVGDocument document, RasterArgs args, String diagramPath) {
 		if (args.getSelected() == null && args.getFlags() == null)
 			return;
-		addFilters(document, args);
+		final boolean halo = args.getVectorHalo() != null && args.getVectorHalo();
+		if (!halo) addFilters(document, args);
 		final List<String> regions = getRegions(document);
 		Collection<String> pathways = regions.stream()
 				.map(id -> id.substring(REGION_.length()))
@@ -39,7 +49,17 @@ class SvgDecoratorRenderer {
 				: new HashSet<>(args.getSelected());
 		final Set<String> flags = args.getFlags() == null
 				? Collections.EMPTY_SET
-				: new HashSet<>(getFlaggedPathways(args, pathways));
+				: new HashSet<>(getFlaggedPathways(args, pathways, diagramPath));
+
+		if (halo) {
+			final Color selection = args.getProfiles().getDiagramSheet().getProperties().getSelection();
+			final Color flag = args.getProfiles().getDiagramSheet().getProperties().getFlag();
+			// Halos are inserted below the previous ones, so the selection
+			// halo is drawn over the wider flag halo
+			setHalo(document, selected, selection, SELECTION_WIDTH, SELECTION_HALO_CLASS);
+			setHalo(document, flags, flag, FLAG_WIDTH, FLAG_HALO_CLASS);
+			return;
+		}
 
 		final Set<String> selAndFlag = new HashSet<>(selected);
 		selAndFlag.retainAll(flags);
@@ -66,11 +86,11 @@ class SvgDecoratorRenderer {
 
 	private static void addFilters(SVGDocument document, RasterArgs args) {
 		final Color selection = args.getProfiles().getDiagramSheet().getProperties().getSelection();
-		final Element selectionFilter = SvgFilterFactory.createBorderFilter(document, selection, 4, "selection");
+		final Element selectionFilter = SvgFilterFactory.createBorderFilter(document, selection, SELECTION_WIDTH, "selection");
 		selectionFilter.setAttribute(SVG_ID_ATTRIBUTE, SELECTION_FILTER);
 
 		final Color flagColor = args.getProfiles().getDiagramSheet().getProperties().getFlag();
-		final Element flagFilter = SvgFilterFactory.createBorderFilter(document, flagColor, 7, "flag");
+		final Element flagFilter = SvgFilterFactory.createBorderFilter(document, flagColor, FLAG_WIDTH, "flag");
 		flagFilter.setAttribute(SVG_ID_ATTRIBUTE, FLAG_FILTER);
 
 		final Element flagAndSelectionFilter = SvgFilterFactory.combineFilters(document, flagFilter, selectionFilter);
@@ -87,12 +107,69 @@ class SvgDecoratorRenderer {
 				.forEach(element -> element.setAttribute(SVGConstants.SVG_STYLE_TAG, "filter:" + filter));
 	}
 
+	/**
+	 * Vector version of the border filters: a copy of each region is added
+	 * below it, filled and stroked with color. Strokes are twice as wide as
+	 * the radius of the dilation, so they look the same. The paint is forced
+	 * with an important CSS rule, as the shapes of the EHLDs are painted by
+	 * their classes.
+	 */
+	private static void setHalo(SVGDocument document, Set<String> ids, Color color, double width, String haloClass) {
+		if (ids.isEmpty()) return;
+		final String hex = ColorFactory.hex(color);
+		final String paint = String.format(Locale.UK, "fill:%s;stroke:%s;stroke-width:%s;stroke-linejoin:round;stroke-linecap:round", hex, hex, 2 * width);
+		SvgUtil.addInlineStyle(document, haloClass + " *", "{" + paint.replace(";", " !important;") + " !important}");
+		for (String stId : ids) {
+			final Element region = document.getElementById(REGION_ + stId);
+			if (region == null) continue;
+			final Element halo = document.createElementNS(SVG_NAMESPACE_URI, SVG_G_TAG);
+			halo.setAttribute(SVG_ID_ATTRIBUTE, HALO_ + stId);
+			halo.setAttribute(SVG_CLASS_ATTRIBUTE, haloClass);
+			// in case the document has no style
+			halo.setAttribute(SVG_STYLE_ATTRIBUTE, paint);
+			if (color.getAlpha() < 255)
+				halo.setAttribute(SVG_OPACITY_ATTRIBUTE, String.format(Locale.UK, "%.2f", color.getAlpha() / 255.0));
+			copyShapes(region, halo);
+			region.insertBefore(halo, region.getFirstChild());
+		}
+	}
+
+	/**
+	 * Copies the children of source into target, without ids. Previous halos
+	 * and the ANALINFO boxes, hidden until there is an analysis, are not
+	 * copied.
+	 */
+	private static void copyShapes(Element source, Element target) {
+		final NodeList children = source.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			final Node child = children.item(i);
+			if (child instanceof Element) {
+				final String id = ((Element) child).getAttribute(SVG_ID_ATTRIBUTE);
+				if (id.startsWith(HALO_) || id.startsWith(SvgAnalysis.ANALINFO)) continue;
+				final Element copy = (Element) child.cloneNode(true);
+				removeIds(copy);
+				target.appendChild(copy);
+			}
+		}
+	}
+
+	private static void removeIds(Element element) {
+		element.removeAttribute(SVG_ID_ATTRIBUTE);
+		final NodeList children = element.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++)
+			if (children.item(i) instanceof Element)
+				removeIds((Element) children.item(i));
+	}
 
-	private static Collection<String> getFlaggedPathways(RasterArgs args, Collection<String> pathways) {
+	private static Collection<String> getFlaggedPathways(RasterArgs args, Collection<String> pathways, String diagramPath) {
 		if (args.getFlags() == null) return Collections.emptyList();
 		final Set<String> pathwaysHit = new TreeSet<>();
-		args.getFlags().forEach(s -> {
-			final List<ContentServiceResponse> responses = ContentServiceClient.getFlagged(s, args.getStId(), pathways);
+		final EhldFlagIndex index = diagramPath == null ? null : EhldFlagIndex.get(diagramPath, args.getStId(), pathways);
+		if (index != null) {
+			args.getFlags().forEach(flag -> pathwaysHit.addAll(index.getRegions(flag)));
+			return pathwaysHit;
+		}
+		ContentServiceClient.getFlagged(args.getFlags(), args.getStId(), pathways).values().forEach(responses -> {
 			if (responses == null) return;
 			responses.forEach(contentServiceResponse -> pathwaysHit.add(contentServiceResponse.getStId()));
 		});
@@ -24,8 +24,9 @@ import static org.apache.batik.util.SVGConstants.*;
  */
 class SvgLegendRenderer {
 
-	private static final DecimalFormat EXPRESSION_FORMAT = new DecimalFormat("#.##E0", DecimalFormatSymbols.getInstance(Locale.UK));
-	private static final DecimalFormat ENRICHMENT_FORMAT = new DecimalFormat("#.##", DecimalFormatSymbols.getInstance(Locale.UK));
+	// DecimalFormat is not thread safe
+	private static final ThreadLocal<DecimalFormat> EXPRESSION_FORMAT = ThreadLocal.withInitial(() -> new DecimalFormat("#.##E0", DecimalFormatSymbols.getInstance(Locale.UK)));
+	private static final ThreadLocal<DecimalFormat> ENRICHMENT_FORMAT = ThreadLocal.withInitial(() -> new DecimalFormat("#.##", DecimalFormatSymbols.getInstance(Locale.UK)));
 
 	private static final String GRADIENT_BOX = "gradient-box";
 	private static final double RX = 8.0;
@@ -76,8 +77,8 @@ class SvgLegendRenderer {
 		final double centerX = width + 2 * BG_PADDING + 0.5 * LEGEND_WIDTH;
 
 		final DecimalFormat formatter = analysisType == AnalysisType.EXPRESSION
-				? EXPRESSION_FORMAT
-				: ENRICHMENT_FORMAT;
+				? EXPRESSION_FORMAT.get()
+				: ENRICHMENT_FORMAT.get();
 		final Element topText = document.createElementNS(SVG_NAMESPACE_URI, SVG_TEXT_TAG);
 		topText.setAttribute(SVG_X_ATTRIBUTE, String.valueOf(centerX));
 		topText.setAttribute(SVG_Y_ATTRIBUTE, String.valueOf((height - LEGEND_HEIGHT) * 0.5 - TEXT_PADDING));
@@ -74,6 +74,8 @@ public class AnimatedGifEncoder {
 
 	protected int sample = 10; // default sample interval for quantizer
 
+	protected final LZWEncoder lzwEncoder = new LZWEncoder(); // reused by every frame
+
 	/**
 	 * Sets the delay time between each frame, or changes it for subsequent
 	 * frames (applies to last frame added).
@@ -298,7 +300,8 @@ public class AnimatedGifEncoder {
 	protected void analyzePixels() {
 		int len = pixels.length;
 		int nPix = len / 3;
-		indexedPixels = new byte[nPix];
+		if (indexedPixels == null || indexedPixels.length != nPix)
+			indexedPixels = new byte[nPix];
 		NeuQuant nq = new NeuQuant(pixels, len, sample);
 		// initialize quantizer
 		colorTab = nq.process(); // create reduced palette
@@ -469,8 +472,7 @@ public class AnimatedGifEncoder {
 	 * Encodes and writes pixel data
 	 */
 	protected void writePixels() throws IOException {
-		LZWEncoder encoder = new LZWEncoder(width, height, indexedPixels, colorDepth);
-		encoder.encode(out);
+		lzwEncoder.encode(out, indexedPixels, width * height, colorDepth);
 	}
 
 	/**
@@ -2,272 +2,226 @@ package org.reactome.server.tools.diagram.exporter.raster.gif;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
 
 // ==============================================================================
 // Adapted from Jef Poskanzer's Java port by way of J. M. G. Elliott.
 // K Weiner 12/00
-
+//
+// GIFCOMPR.C - GIF Image compression routines
+//
+// Lempel-Ziv compression based on 'compress'. GIF modifications by
+// David Rowley (mgardi@watdcsu.waterloo.edu)
+//
+// Based on: compress.c - File compression ala IEEE Computer, June 1984.
+//
+// By Authors: Spencer W. Thomas (decvax!harpo!utah-cs!utah-gr!thomas)
+// Jim McKie (decvax!mcvax!jim)
+// Steve Davies (decvax!vax135!petsd!peora!srd)
+// Ken Turkowski (decvax!decwrl!turtlevax!ken)
+// James A. Woods (decvax!ihnp4!ames!jaw)
+// Joe Orost (decvax!vax135!petsd!joe)
+
+/**
+ * GIF LZW compressor. One instance can encode any number of frames: the hash
+ * tables and the output buffer are allocated once and reused by every call to
+ * {@link #encode(OutputStream, byte[], int, int)}.
+ * <p>
+ * Instead of accumulating 255-byte packets and writing each one to the
+ * OutputStream, sub-blocks (length byte + data) are laid out directly in a
+ * large buffer which is only written when it is full, so the stream receives
+ * a few big writes per frame.
+ * <p>
+ * Algorithm: use open addressing double hashing (no chaining) on the prefix
+ * code / next character combination. We do a variant of Knuth's algorithm D
+ * (vol. 3, sec. 6.4) along with G. Knott's relatively-prime secondary probe.
+ * Here, the modular division first probe is gives way to a faster
+ * exclusive-or manipulation. Also do block compression with an adaptive
+ * reset, whereby the code table is cleared when the compression ratio
+ * decreases, but after the table fills. The variable-length output codes are
+ * re-sized at this point, and a special CLEAR code is generated for the
+ * decompressor.
+ */
 class LZWEncoder {
 
-	static final int BITS = 12;
-	static final int HSIZE = 5003; // 80% occupancy
-	private static final int EOF = -1;
-	int n_bits; // number of bits/code
-	int maxbits = BITS; // user settable max # bits/code
-	int maxcode; // maximum code, given n_bits
-
-	// GIFCOMPR.C - GIF Image compression routines
-	//
-	// Lempel-Ziv compression based on 'compress'. GIF modifications by
-	// David Rowley (mgardi@watdcsu.waterloo.edu)
-
-	// General DEFINEs
-	int maxmaxcode = 1 << BITS; // should NEVER generate this code
-	int[] htab = new int[HSIZE];
-
-	// GIF Image compression - modified 'compress'
-	//
-	// Based on: compress.c - File compression ala IEEE Computer, June 1984.
-	//
-	// By Authors: Spencer W. Thomas (decvax!harpo!utah-cs!utah-gr!thomas)
-	// Jim McKie (decvax!mcvax!jim)
-	// Steve Davies (decvax!vax135!petsd!peora!srd)
-	// Ken Turkowski (decvax!decwrl!turtlevax!ken)
-	// James A. Woods (decvax!ihnp4!ames!jaw)
-	// Joe Orost (decvax!vax135!petsd!joe)
-	int[] codetab = new int[HSIZE];
-	int hsize = HSIZE; // for dynamic table sizing
-	int free_ent = 0; // first unused entry
+	private static final int BITS = 12;
+	/** should NEVER generate this code */
+	private static final int MAX_MAX_CODE = 1 << BITS;
+	private static final int HSIZE = 5003; // 80% occupancy
+	/** xor hashing shift, 8 - log2(65536 / HSIZE) */
+	private static final int HSHIFT = 4;
+	/** max number of data bytes in a GIF sub-block */
+	private static final int BLOCK_SIZE = 255;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final int[] htab = new int[HSIZE];
+	private final int[] codetab = new int[HSIZE];
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private OutputStream out;
+	/** next free position in buffer */
+	private int position;
+	/** position of the length byte of the current sub-block */
+	private int blockStart;
+
+	private int initBits;
+	private int clearCode;
+	private int eofCode;
+	private int nBits; // number of bits/code
+	private int maxCode; // maximum code, given nBits
+	private int freeEnt; // first unused entry
 	// block compression parameters -- after all codes are used up,
 	// and compression rate changes, start over.
-	boolean clear_flg = false;
-	int g_init_bits;
-	int ClearCode;
-	int EOFCode;
-	int cur_accum = 0;
-	int cur_bits = 0;
-
-	// Algorithm: use open addressing double hashing (no chaining) on the
-	// prefix code / next character combination. We do a variant of Knuth's
-	// algorithm D (vol. 3, sec. 6.4) along with G. Knott's relatively-prime
-	// secondary probe. Here, the modular division first probe is gives way
-	// to a faster exclusive-or manipulation. Also do block compression with
-	// an adaptive reset, whereby the code table is cleared when the compression
-	// ratio decreases, but after the table fills. The variable-length output
-	// codes are re-sized at this point, and a special CLEAR code is generated
-	// for the decompressor. Late addition: construct the table according to
-	// file size for noticeable speed improvement on small files. Please direct
-	// questions about this implementation to ames!jaw.
-	int masks[] = {0x0000, 0x0001, 0x0003, 0x0007, 0x000F, 0x001F, 0x003F, 0x007F, 0x00FF, 0x01FF,
-			0x03FF, 0x07FF, 0x0FFF, 0x1FFF, 0x3FFF, 0x7FFF, 0xFFFF};
-	// Number of characters so far in this 'packet'
-	int a_count;
-	// Define the storage for the packet accumulator
-	byte[] accum = new byte[256];
-
-	// output
-	//
-	// Output the given code.
-	// Inputs:
-	// code: A n_bits-bit integer. If == -1, then EOF. This assumes
-	// that n_bits =< wordsize - 1.
-	// Outputs:
-	// Outputs code to the file.
-	// Assumptions:
-	// Chars are 8 bits long.
-	// Algorithm:
-	// Maintain a BITS character long buffer (so that 8 codes will
-	// fit in it exactly). Use the VAX insv instruction to insert each
-	// code in turn. When the buffer fills up empty it and start over.
-	private int imgW, imgH;
-	private byte[] pixAry;
-	private int initCodeSize;
-	private int remaining;
-	private int curPixel;
-
-	// ----------------------------------------------------------------------------
-	LZWEncoder(int width, int height, byte[] pixels, int color_depth) {
-		imgW = width;
-		imgH = height;
-		pixAry = pixels;
-		initCodeSize = Math.max(2, color_depth);
-	}
-
-	// Add a character to the end of the current packet, and if it is 254
-	// characters, flush the packet to disk.
-	void char_out(byte c, OutputStream outs) throws IOException {
-		accum[a_count++] = c;
-		if (a_count >= 254)
-			flush_char(outs);
-	}
-
-	// Clear out the hash table
-
-	// table clear for block compress
-	void cl_block(OutputStream outs) throws IOException {
-		cl_hash(hsize);
-		free_ent = ClearCode + 2;
-		clear_flg = true;
-
-		output(ClearCode, outs);
-	}
-
-	// reset code table
-	void cl_hash(int hsize) {
-		for (int i = 0; i < hsize; ++i)
-			htab[i] = -1;
+	private boolean clearFlag;
+	private int accumulator;
+	private int accumulatedBits;
+
+	/**
+	 * Compresses the first <em>length</em> indexed pixels and writes them to
+	 * os, including the initial code size byte and the block terminator.
+	 *
+	 * @param os         where to write the image data
+	 * @param pixels     palette indices, one byte per pixel
+	 * @param length     number of pixels to encode
+	 * @param colorDepth number of bits per pixel
+	 *
+	 * @throws IOException as thrown by {@link OutputStream#write(byte[], int,
+	 *                     int)}
+	 */
+	void encode(OutputStream os, byte[] pixels, int length, int colorDepth) throws IOException {
+		final int initCodeSize = Math.max(2, colorDepth);
+		out = os;
+		position = 0;
+		buffer[position++] = (byte) initCodeSize;
+		blockStart = position++;
+		try {
+			compress(pixels, length, initCodeSize + 1);
+			closeBlock();
+			buffer[position++] = 0; // block terminator
+			flush();
+		} finally {
+			out = null;
+		}
 	}
 
-	void compress(int init_bits, OutputStream outs) throws IOException {
-		int fcode;
-		int i /* = 0 */;
-		int c;
-		int ent;
-		int disp;
-		int hsize_reg;
-		int hshift;
-
-		// Set up the globals: g_init_bits - initial number of bits
-		g_init_bits = init_bits;
-
-		// Set up the necessary values
-		clear_flg = false;
-		n_bits = g_init_bits;
-		maxcode = MAXCODE(n_bits);
-
-		ClearCode = 1 << (init_bits - 1);
-		EOFCode = ClearCode + 1;
-		free_ent = ClearCode + 2;
-
-		a_count = 0; // clear packet
-
-		ent = nextPixel();
-
-		hshift = 0;
-		for (fcode = hsize; fcode < 65536; fcode *= 2)
-			++hshift;
-		hshift = 8 - hshift; // set hash code range bound
-
-		hsize_reg = hsize;
-		cl_hash(hsize_reg); // clear hash table
-
-		output(ClearCode, outs);
-
+	private void compress(byte[] pixels, int length, int initBits) throws IOException {
+		this.initBits = initBits;
+		clearFlag = false;
+		nBits = initBits;
+		maxCode = maxCode(nBits);
+		clearCode = 1 << (initBits - 1);
+		eofCode = clearCode + 1;
+		freeEnt = clearCode + 2;
+		accumulator = 0;
+		accumulatedBits = 0;
+
+		Arrays.fill(htab, -1);
+		output(clearCode);
+		if (length == 0) {
+			output(eofCode);
+			return;
+		}
+		int ent = pixels[0] & 0xff;
 		outer_loop:
-		while ((c = nextPixel()) != EOF) {
-			fcode = (c << maxbits) + ent;
-			i = (c << hshift) ^ ent; // xor hashing
-
+		for (int p = 1; p < length; p++) {
+			final int c = pixels[p] & 0xff;
+			final int fcode = (c << BITS) + ent;
+			int i = (c << HSHIFT) ^ ent; // xor hashing
 			if (htab[i] == fcode) {
 				ent = codetab[i];
 				continue;
-			} else if (htab[i] >= 0) // non-empty slot
-			{
-				disp = hsize_reg - i; // secondary hash (after G. Knott)
-				if (i == 0)
-					disp = 1;
+			} else if (htab[i] >= 0) { // non-empty slot
+				final int disp = i == 0 ? 1 : HSIZE - i; // secondary hash (after G. Knott)
 				do {
 					if ((i -= disp) < 0)
-						i += hsize_reg;
-
+						i += HSIZE;
 					if (htab[i] == fcode) {
 						ent = codetab[i];
 						continue outer_loop;
 					}
 				} while (htab[i] >= 0);
 			}
-			output(ent, outs);
+			output(ent);
 			ent = c;
-			if (free_ent < maxmaxcode) {
-				codetab[i] = free_ent++; // code -> hashtable
+			if (freeEnt < MAX_MAX_CODE) {
+				codetab[i] = freeEnt++; // code -> hashtable
 				htab[i] = fcode;
-			} else
-				cl_block(outs);
+			} else clearBlock();
 		}
 		// Put out the final code.
-		output(ent, outs);
-		output(EOFCode, outs);
-	}
-
-	// ----------------------------------------------------------------------------
-	void encode(OutputStream os) throws IOException {
-		os.write(initCodeSize); // write "initial code size" byte
-
-		remaining = imgW * imgH; // reset navigation variables
-		curPixel = 0;
-
-		compress(initCodeSize + 1, os); // compress and write the pixel data
-
-		os.write(0); // write block terminator
+		output(ent);
+		output(eofCode);
 	}
 
-	// Flush the packet to disk, and reset the accumulator
-	void flush_char(OutputStream outs) throws IOException {
-		if (a_count > 0) {
-			outs.write(a_count);
-			outs.write(accum, 0, a_count);
-			a_count = 0;
-		}
-	}
-
-	final int MAXCODE(int n_bits) {
-		return (1 << n_bits) - 1;
-	}
-
-	// ----------------------------------------------------------------------------
-	// Return the next pixel from the image
-	// ----------------------------------------------------------------------------
-	private int nextPixel() {
-		if (remaining == 0)
-			return EOF;
-
-		--remaining;
-
-		byte pix = pixAry[curPixel++];
-
-		return pix & 0xff;
+	/** table clear for block compress */
+	private void clearBlock() throws IOException {
+		Arrays.fill(htab, -1);
+		freeEnt = clearCode + 2;
+		clearFlag = true;
+		output(clearCode);
 	}
 
-	void output(int code, OutputStream outs) throws IOException {
-		cur_accum &= masks[cur_bits];
-
-		if (cur_bits > 0)
-			cur_accum |= (code << cur_bits);
-		else
-			cur_accum = code;
-
-		cur_bits += n_bits;
-
-		while (cur_bits >= 8) {
-			char_out((byte) (cur_accum & 0xff), outs);
-			cur_accum >>= 8;
-			cur_bits -= 8;
+	private void output(int code) throws IOException {
+		accumulator = (accumulator & ((1 << accumulatedBits) - 1)) | (code << accumulatedBits);
+		accumulatedBits += nBits;
+		while (accumulatedBits >= 8) {
+			write(accumulator);
+			accumulator >>= 8;
+			accumulatedBits -= 8;
 		}
 
 		// If the next entry is going to be too big for the code size,
 		// then increase it, if possible.
-		if (free_ent > maxcode || clear_flg) {
-			if (clear_flg) {
-				maxcode = MAXCODE(n_bits = g_init_bits);
-				clear_flg = false;
+		if (freeEnt > maxCode || clearFlag) {
+			if (clearFlag) {
+				nBits = initBits;
+				maxCode = maxCode(nBits);
+				clearFlag = false;
 			} else {
-				++n_bits;
-				if (n_bits == maxbits)
-					maxcode = maxmaxcode;
-				else
-					maxcode = MAXCODE(n_bits);
+				++nBits;
+				maxCode = nBits == BITS ? MAX_MAX_CODE : maxCode(nBits);
 			}
 		}
 
-		if (code == EOFCode) {
-			// At EOF, write the rest of the buffer.
-			while (cur_bits > 0) {
-				char_out((byte) (cur_accum & 0xff), outs);
-				cur_accum >>= 8;
-				cur_bits -= 8;
+		if (code == eofCode) {
+			// At EOF, write the rest of the accumulator.
+			while (accumulatedBits > 0) {
+				write(accumulator);
+				accumulator >>= 8;
+				accumulatedBits -= 8;
 			}
+		}
+	}
 
-			flush_char(outs);
+	/**
+	 * Appends a byte to the current sub-block. When the sub-block is full, its
+	 * length is set and a new one is opened, flushing the buffer first if
+	 * there is no room for another complete sub-block.
+	 */
+	private void write(int b) throws IOException {
+		buffer[position++] = (byte) b;
+		if (position - blockStart > BLOCK_SIZE) {
+			buffer[blockStart] = (byte) BLOCK_SIZE;
+			// a full block plus the block terminator must always fit
+			if (position + BLOCK_SIZE + 2 > BUFFER_SIZE)
+				flush();
+			blockStart = position++;
 		}
 	}
+
+	/** Sets the length of the last sub-block, or discards it if empty */
+	private void closeBlock() {
+		final int size = position - blockStart - 1;
+		if (size == 0) position = blockStart;
+		else buffer[blockStart] = (byte) size;
+	}
+
+	private void flush() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+	}
+
+	private static int maxCode(int nBits) {
+		return (1 << nBits) - 1;
+	}
 }
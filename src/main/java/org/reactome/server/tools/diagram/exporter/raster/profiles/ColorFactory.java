@@ -3,20 +3,21 @@ package org.reactome.server.tools.diagram.exporter.raster.profiles;
 import java.awt.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
- * Parse colors in hex RGB (#FF0000) and rgba(255,255,0, 0.5)
+ * Parse colors in hex RGB (#FF0000) and rgba(255,255,0, 0.5). Colors are
+ * shared by the raster ColorProfiles and the PPTX stylesheets.
  */
 public class ColorFactory {
 
 	private final static Pattern RGBA = Pattern.compile("rgba\\((.*)\\)");
-	// speed up with a color cache
-	// of course, this shouldn't be necessary if the Profiles already had the
-	// colors parsed
-	private static final Map<String, Color> cache = new HashMap<>();
+	// Profiles parse their colors once, when loaded, but several threads may
+	// load them at the same time
+	private static final Map<String, Color> cache = new ConcurrentHashMap<>();
 	private static final float INV_255 = 0.003921569f; // 1 / 255
 
 	public static Color parseColor(String color) {
@@ -63,16 +64,16 @@ public class ColorFactory {
 				Math.min(255, (int) (alpha * 255)));
 	}
 
+	/**
+	 * Shortcut for <code>gradient.getColor(scale)</code>.
+	 *
+	 * @see GradientSheet#getColor(double)
+	 */
 	public static Color interpolate(GradientSheet gradient, double scale) {
-		if (gradient.getStop() == null)
-			return interpolate(gradient.getMin(), gradient.getMax(), scale);
-		else if (scale < 0.5)
-			return interpolate(gradient.getMin(), gradient.getStop(), scale * 2);
-		else
-			return interpolate(gradient.getStop(), gradient.getMax(), (scale - 0.5) * 2);
+		return gradient.getColor(scale);
 	}
 
-	private static Color interpolate(Color a, Color b, double t) {
+	static Color interpolate(Color a, Color b, double t) {
 		if (t <= 0.0) return a;
 		if (t >= 1.0) return b;
 		float scale = (float) t;
@@ -3,10 +3,22 @@ package org.reactome.server.tools.diagram.exporter.raster.profiles;
 
 import java.awt.*;
 
+/**
+ * Gradient of 2 or 3 colors. Analysis colors are taken from a lookup table of
+ * {@link #LUT_SIZE} colors, evenly spaced along the gradient, so getting a
+ * color does not compute nor allocate anything. Adjacent colors differ in 1
+ * unit per channel at most, so the nearest one is used.
+ */
 public class GradientSheet {
+
+	// odd, so the stop has its own entry
+	static final int LUT_SIZE = 1025;
+
 	private Color min;
 	private Color stop;
 	private Color max;
+	// built the first time a color is requested
+	private volatile Lut lut;
 
 
 	public Color getMin() {
@@ -15,6 +27,7 @@ public class GradientSheet {
 
 	public void setMin(String color) {
 		this.min = ColorFactory.parseColor(color);
+		this.lut = null;
 	}
 
 
@@ -24,6 +37,7 @@ public class GradientSheet {
 
 	public void setStop(String color) {
 		this.stop = ColorFactory.parseColor(color);
+		this.lut = null;
 	}
 
 
@@ -33,6 +47,59 @@ public class GradientSheet {
 
 	public void setMax(String color) {
 		this.max = ColorFactory.parseColor(color);
+		this.lut = null;
+	}
+
+	/**
+	 * @param scale position in the gradient, from 0 (min) to 1 (max). Values
+	 *              out of range are clamped
+	 * @return the color of the gradient at scale
+	 */
+	public Color getColor(double scale) {
+		return getLut().colors[index(scale)];
+	}
+
+	/**
+	 * @return the color of the gradient at scale, in hex RGB (#FF0000)
+	 * @see #getColor(double)
+	 */
+	public String getHex(double scale) {
+		return getLut().hexes[index(scale)];
+	}
+
+	private static int index(double scale) {
+		// NaN goes to 0
+		return (int) (Math.max(0, Math.min(1, scale)) * (LUT_SIZE - 1) + 0.5);
+	}
+
+	private Lut getLut() {
+		Lut lut = this.lut;
+		if (lut == null) this.lut = lut = new Lut(this);
+		return lut;
+	}
+
+	/**
+	 * Exact color of the gradient at scale, used to build the lookup table
+	 */
+	Color interpolate(double scale) {
+		if (stop == null)
+			return ColorFactory.interpolate(min, max, scale);
+		else if (scale < 0.5)
+			return ColorFactory.interpolate(min, stop, scale * 2);
+		else
+			return ColorFactory.interpolate(stop, max, (scale - 0.5) * 2);
+	}
+
+	private static class Lut {
+		private final Color[] colors = new Color[LUT_SIZE];
+		private final String[] hexes = new String[LUT_SIZE];
+
+		Lut(GradientSheet gradient) {
+			for (int i = 0; i < LUT_SIZE; i++) {
+				colors[i] = gradient.interpolate((double) i / (LUT_SIZE - 1));
+				hexes[i] = ColorFactory.hex(colors[i]);
+			}
+		}
 	}
 
 }
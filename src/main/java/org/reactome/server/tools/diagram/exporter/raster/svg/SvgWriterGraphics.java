@@ -0,0 +1,836 @@
+package org.reactome.server.tools.diagram.exporter.raster.svg;
+
+import org.apache.batik.ext.awt.g2d.AbstractGraphics2D;
+import org.apache.batik.ext.awt.g2d.GraphicContext;
+import org.apache.commons.io.output.NullWriter;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.text.AttributedCharacterIterator;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Graphics2D that writes SVG elements directly into a Writer, as they are
+ * painted. Unlike Batik's SVGGraphics2D, no DOM is built, so memory does not
+ * grow with the size of the diagram. Shapes are written as paths, strings as
+ * texts and images as embedded PNGs. Only Color, GradientPaint and
+ * LinearGradientPaint are supported as paints.
+ * <p>
+ * In compact mode (see {@link #setCompact(boolean)}) the output is smaller:
+ * <ul>
+ * <li>styles are written once, as CSS classes in a style element</li>
+ * <li>consecutive lines with the same opaque style are merged into one
+ * path</li>
+ * <li>shapes that are painted several times, such as stoichiometry boxes or
+ * arrows with the same orientation, are defined once and placed with use
+ * elements</li>
+ * </ul>
+ * Call {@link #start(Rectangle2D)} before painting and {@link #finish()} at the
+ * end. Graphics methods can't throw IOExceptions, so they are wrapped in
+ * UncheckedIOExceptions.
+ */
+public class SvgWriterGraphics extends AbstractGraphics2D {
+
+	/** Shorter shapes are not worth a use element */
+	private static final int MIN_SHARED_PATH = 24;
+	/** Max number of shapes remembered to be shared */
+	private static final int MAX_SHARED_PATHS = 10_000;
+
+	private final Context context;
+	/**
+	 * Non compact graphics that shares our graphic context and receives the
+	 * same paint calls, only to count the characters of the verbose output
+	 */
+	private SvgWriterGraphics verbose;
+
+	public SvgWriterGraphics(Writer writer) {
+		super(false);
+		this.context = new Context(writer);
+		gc = new GraphicContext();
+	}
+
+	private SvgWriterGraphics(SvgWriterGraphics graphics) {
+		super(graphics);
+		this.context = graphics.context;
+		if (graphics.verbose != null) verbose = new SvgWriterGraphics(graphics.verbose.context, gc);
+	}
+
+	private SvgWriterGraphics(Context context, GraphicContext gc) {
+		super(false);
+		this.context = context;
+		this.gc = gc;
+	}
+
+	/**
+	 * Enables the compact mode. Must be called before {@link
+	 * #start(Rectangle2D)}. Defaults to false.
+	 */
+	public void setCompact(boolean compact) {
+		context.compact = compact;
+	}
+
+	/**
+	 * Max number of decimals of coordinates and sizes. Defaults to 3.
+	 */
+	public void setPrecision(int precision) {
+		if (precision < 0 || precision > 6)
+			throw new IllegalArgumentException("precision must be between 0 and 6");
+		context.precision = precision;
+		context.scale = (long) Math.pow(10, precision);
+		if (verbose != null) verbose.setPrecision(precision);
+	}
+
+	/**
+	 * Counts, while painting, the characters the output would have without
+	 * the compact mode, so both sizes can be compared without painting
+	 * twice. See {@link #getVerboseSize()}. Must be called before {@link
+	 * #start(Rectangle2D)}. Defaults to false.
+	 */
+	public void setCountVerbose(boolean count) {
+		if (!count) verbose = null;
+		else if (verbose == null) {
+			verbose = new SvgWriterGraphics(new Context(NullWriter.NULL_WRITER), gc);
+			verbose.setPrecision(context.precision);
+		}
+	}
+
+	/**
+	 * @return amount of characters sent to the writer so far. As only texts
+	 * may contain non ASCII characters, this is usually the size in bytes.
+	 */
+	public long getSize() {
+		return context.size;
+	}
+
+	/**
+	 * @return amount of characters the output would have so far without the
+	 * compact mode, or -1 if they are not counted. See {@link
+	 * #setCountVerbose(boolean)}.
+	 */
+	public long getVerboseSize() {
+		return verbose == null ? -1 : verbose.getSize();
+	}
+
+	/**
+	 * Writes the XML declaration and opens the svg element.
+	 *
+	 * @param viewBox area of the canvas shown in the document
+	 */
+	public void start(Rectangle2D viewBox) {
+		write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\"");
+		write(" viewBox=\"");
+		number(viewBox.getX()).write(" ");
+		number(viewBox.getY()).write(" ");
+		number(viewBox.getWidth()).write(" ");
+		number(viewBox.getHeight()).write("\">\n");
+		if (verbose != null) verbose.start(viewBox);
+	}
+
+	/**
+	 * Closes the svg element and flushes the writer, which is not closed. In
+	 * compact mode, the style element is written before closing, as CSS rules
+	 * apply to the whole document wherever they are.
+	 */
+	public void finish() {
+		flushMerge();
+		if (!context.classes.isEmpty()) {
+			write("<style type=\"text/css\"><![CDATA[\n");
+			context.classes.forEach((style, name) -> {
+				write(".");
+				write(name);
+				write("{");
+				write(style);
+				write("}\n");
+			});
+			write("]]></style>\n");
+		}
+		write("</svg>\n");
+		try {
+			context.writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (verbose != null) verbose.finish();
+	}
+
+	@Override
+	public void draw(Shape shape) {
+		final Stroke stroke = gc.getStroke();
+		if (!(stroke instanceof BasicStroke)) {
+			fill(stroke.createStrokedShape(shape));
+			return;
+		}
+		final BasicStroke basicStroke = (BasicStroke) stroke;
+		final List<String> style = context.style;
+		style.clear();
+		style("fill", "none");
+		paint("stroke", gc.getPaint());
+		if (basicStroke.getLineWidth() != 1) style("stroke-width", format(basicStroke.getLineWidth()));
+		if (basicStroke.getEndCap() == BasicStroke.CAP_ROUND) style("stroke-linecap", "round");
+		else if (basicStroke.getEndCap() == BasicStroke.CAP_SQUARE) style("stroke-linecap", "square");
+		if (basicStroke.getLineJoin() == BasicStroke.JOIN_ROUND) style("stroke-linejoin", "round");
+		else if (basicStroke.getLineJoin() == BasicStroke.JOIN_BEVEL) style("stroke-linejoin", "bevel");
+		else if (basicStroke.getMiterLimit() != 4) style("stroke-miterlimit", format(basicStroke.getMiterLimit()));
+		final float[] dash = basicStroke.getDashArray();
+		if (dash != null) {
+			final StringJoiner joiner = new StringJoiner(",");
+			for (float value : dash) joiner.add(format(value));
+			style("stroke-dasharray", joiner.toString());
+			if (basicStroke.getDashPhase() != 0) style("stroke-dashoffset", format(basicStroke.getDashPhase()));
+		}
+		// Java restarts the dash pattern in every subpath, as SVG does, so
+		// lines can be merged when overlaps are not visible
+		shape(shape, isOpaque());
+		if (verbose != null) verbose.draw(shape);
+	}
+
+	@Override
+	public void fill(Shape shape) {
+		final List<String> style = context.style;
+		style.clear();
+		paint("fill", gc.getPaint());
+		if (shape.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD)
+			style("fill-rule", "evenodd");
+		// merged fills could make holes where shapes with opposite directions
+		// overlap
+		shape(shape, false);
+		if (verbose != null) verbose.fill(shape);
+	}
+
+	@Override
+	public void drawString(String text, float x, float y) {
+		final Font font = gc.getFont();
+		final List<String> style = context.style;
+		style.clear();
+		style("font-family", family(font));
+		style("font-size", format(font.getSize2D()));
+		if (font.isBold()) style("font-weight", "bold");
+		if (font.isItalic()) style("font-style", "italic");
+		paint("fill", gc.getPaint());
+		open("<text x=\"");
+		number(x).write("\" y=\"");
+		number(y).write("\"");
+		style();
+		attributes();
+		write(" xml:space=\"preserve\">");
+		escape(text).write("</text>\n");
+		if (verbose != null) verbose.drawString(text, x, y);
+	}
+
+	/**
+	 * Java logical fonts are translated into generic CSS families
+	 */
+	private static String family(Font font) {
+		switch (font.getFamily()) {
+			case Font.DIALOG:
+			case Font.SANS_SERIF:
+				return "sans-serif";
+			case Font.SERIF:
+				return "serif";
+			case Font.DIALOG_INPUT:
+			case Font.MONOSPACED:
+				return "monospace";
+			default:
+				return font.getFamily();
+		}
+	}
+
+	@Override
+	public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+		final StringBuilder builder = new StringBuilder();
+		for (char c = iterator.first(); c != AttributedCharacterIterator.DONE; c = iterator.next())
+			builder.append(c);
+		drawString(builder.toString(), x, y);
+	}
+
+	@Override
+	public boolean drawImage(Image image, int x, int y, ImageObserver observer) {
+		return drawImage(image, x, y, image.getWidth(observer), image.getHeight(observer), observer);
+	}
+
+	@Override
+	public boolean drawImage(Image image, int x, int y, int width, int height, ImageObserver observer) {
+		if (width <= 0 || height <= 0) return true;
+		image(toBufferedImage(image, observer), x, y, width, height, null);
+		if (verbose != null) verbose.drawImage(image, x, y, width, height, observer);
+		return true;
+	}
+
+	@Override
+	public void drawRenderedImage(RenderedImage image, AffineTransform transform) {
+		final BufferedImage bufferedImage;
+		if (image instanceof BufferedImage) bufferedImage = (BufferedImage) image;
+		else {
+			bufferedImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+			bufferedImage.createGraphics().drawRenderedImage(image, new AffineTransform());
+		}
+		image(bufferedImage, 0, 0, bufferedImage.getWidth(), bufferedImage.getHeight(), transform);
+		if (verbose != null) verbose.drawRenderedImage(bufferedImage, transform);
+	}
+
+	@Override
+	public void drawRenderableImage(RenderableImage image, AffineTransform transform) {
+		drawRenderedImage(image.createDefaultRendering(), transform);
+	}
+
+	@Override
+	public GraphicsConfiguration getDeviceConfiguration() {
+		return null;
+	}
+
+	@Override
+	public Graphics create() {
+		return new SvgWriterGraphics(this);
+	}
+
+	@Override
+	public void dispose() {
+		// the writer belongs to the creator of the first graphics
+	}
+
+	@Override
+	public void setXORMode(Color color) {
+		// not supported in SVG
+	}
+
+	@Override
+	public FontMetrics getFontMetrics(Font font) {
+		return context.metrics.getFontMetrics(font);
+	}
+
+	@Override
+	public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+		// there are no pixels to copy
+	}
+
+	/**
+	 * Writes shape with the current style. In compact mode, repeated shapes
+	 * are written as use elements and, if mergeable, consecutive shapes with
+	 * the same style are merged into one path. Only shapes painted with a
+	 * Color are shared: gradients are in absolute coordinates, so they would
+	 * be moved with the use element.
+	 */
+	private void shape(Shape shape, boolean mergeable) {
+		if (!context.compact || gc.getClip() != null || !gc.getTransform().isIdentity()) {
+			open("<path");
+			write(" d=\"");
+			path(shape, 0, 0);
+			write("\"");
+			style();
+			attributes();
+			write("/>\n");
+			return;
+		}
+		final String styleClass = styleClass();
+		final PathIterator iterator = shape.getPathIterator(null);
+		if (iterator.isDone()) return;
+		final double[] start = new double[6];
+		iterator.currentSegment(start);
+		final String relative = capture(() -> path(shape, -start[0], -start[1]));
+		String id = context.shapes.get(relative);
+		if (id == null && gc.getPaint() instanceof Color
+				&& relative.length() >= MIN_SHARED_PATH && context.shapes.size() < MAX_SHARED_PATHS) {
+			// the first time the shape is written as a path, the second one
+			// it is defined, so single shapes do not pay for the definition
+			if (context.shapes.containsKey(relative)) {
+				id = "p" + context.ids++;
+				context.shapes.put(relative, id);
+				final String defined = id;
+				define(() -> {
+					write("<defs><path id=\"");
+					write(defined);
+					write("\" d=\"");
+					write(relative);
+					write("\"/></defs>\n");
+				});
+			} else context.shapes.put(relative, null);
+		}
+		if (id != null) {
+			open("<use xlink:href=\"#");
+			write(id);
+			write("\" x=\"");
+			number(start[0]).write("\" y=\"");
+			number(start[1]).write("\" class=\"");
+			write(styleClass);
+			write("\"/>\n");
+			return;
+		}
+		final String path = capture(() -> path(shape, 0, 0));
+		if (mergeable && styleClass.equals(context.mergeClass)) {
+			context.merge.append(" ").append(path);
+			return;
+		}
+		if (mergeable) {
+			flushMerge();
+			context.mergeClass = styleClass;
+			context.merge.append(path);
+			return;
+		}
+		open("<path d=\"");
+		write(path);
+		write("\" class=\"");
+		write(styleClass);
+		write("\"/>\n");
+	}
+
+	private boolean isOpaque() {
+		final Paint paint = gc.getPaint();
+		final Composite composite = gc.getComposite();
+		return paint instanceof Color && ((Color) paint).getAlpha() == 255
+				&& (!(composite instanceof AlphaComposite) || ((AlphaComposite) composite).getAlpha() == 1);
+	}
+
+	/**
+	 * Starts a new element, writing the merged path if there is one
+	 */
+	private void open(String text) {
+		flushMerge();
+		write(text);
+	}
+
+	private void flushMerge() {
+		if (context.mergeClass == null) return;
+		write("<path d=\"");
+		context.buffer.append(context.merge);
+		write("\" class=\"");
+		write(context.mergeClass);
+		write("\"/>\n");
+		context.merge.setLength(0);
+		context.mergeClass = null;
+	}
+
+	private void image(BufferedImage image, double x, double y, double width, double height, AffineTransform transform) {
+		String data = context.images.get(image);
+		if (data == null) {
+			final ByteArrayOutputStream os = new ByteArrayOutputStream();
+			try {
+				ImageIO.write(image, "png", os);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			data = Base64.getEncoder().encodeToString(os.toByteArray());
+			context.images.put(image, data);
+		}
+		open("<image x=\"");
+		number(x).write("\" y=\"");
+		number(y).write("\" width=\"");
+		number(width).write("\" height=\"");
+		number(height).write("\" preserveAspectRatio=\"none\"");
+		if (transform != null && !transform.isIdentity()) {
+			final AffineTransform full = gc.getTransform();
+			full.concatenate(transform);
+			transformAttribute(full);
+			// the clip must be in the coordinates of the image
+			Shape clip = gc.getClip();
+			if (clip != null) try {
+				clip = transform.createInverse().createTransformedShape(clip);
+			} catch (NoninvertibleTransformException e) {
+				// the image is not visible anyway
+			}
+			clipPath(clip);
+		} else attributes();
+		write(" xlink:href=\"data:image/png;base64,");
+		write(data);
+		write("\"/>\n");
+	}
+
+	private static BufferedImage toBufferedImage(Image image, ImageObserver observer) {
+		if (image instanceof BufferedImage) return (BufferedImage) image;
+		final BufferedImage bufferedImage = new BufferedImage(image.getWidth(observer), image.getHeight(observer), BufferedImage.TYPE_INT_ARGB);
+		final Graphics2D graphics = bufferedImage.createGraphics();
+		graphics.drawImage(image, 0, 0, observer);
+		graphics.dispose();
+		return bufferedImage;
+	}
+
+	/**
+	 * Writes the path data of shape, moved by (dx, dy). In compact mode,
+	 * repeated commands are omitted.
+	 */
+	private void path(Shape shape, double dx, double dy) {
+		final PathIterator iterator = shape.getPathIterator(null);
+		final double[] coords = new double[6];
+		int last = -1;
+		while (!iterator.isDone()) {
+			final int segment = iterator.currentSegment(coords);
+			if (last != -1) write(" ");
+			if (segment != last || segment == PathIterator.SEG_MOVETO || segment == PathIterator.SEG_CLOSE || !context.compact) {
+				switch (segment) {
+					case PathIterator.SEG_MOVETO:
+						write("M");
+						break;
+					case PathIterator.SEG_LINETO:
+						write("L");
+						break;
+					case PathIterator.SEG_QUADTO:
+						write("Q");
+						break;
+					case PathIterator.SEG_CUBICTO:
+						write("C");
+						break;
+					case PathIterator.SEG_CLOSE:
+						write("Z");
+						break;
+				}
+			}
+			switch (segment) {
+				case PathIterator.SEG_MOVETO:
+				case PathIterator.SEG_LINETO:
+					points(coords, 1, dx, dy);
+					break;
+				case PathIterator.SEG_QUADTO:
+					points(coords, 2, dx, dy);
+					break;
+				case PathIterator.SEG_CUBICTO:
+					points(coords, 3, dx, dy);
+					break;
+			}
+			last = segment;
+			iterator.next();
+		}
+	}
+
+	private void points(double[] coords, int points, double dx, double dy) {
+		for (int i = 0; i < points; i++) {
+			if (i > 0) write(" ");
+			number(coords[2 * i] + dx).write(" ");
+			number(coords[2 * i + 1] + dy);
+		}
+	}
+
+	private void style(String name, String value) {
+		context.style.add(name);
+		context.style.add(value);
+	}
+
+	/**
+	 * Adds the style property with the paint, plus an opacity property when
+	 * it is not opaque
+	 */
+	private void paint(String name, Paint paint) {
+		double alpha = 1;
+		if (paint instanceof Color) {
+			final Color color = (Color) paint;
+			style(name, capture(() -> color(color)));
+			alpha = color.getAlpha() / 255.0;
+		} else if (paint instanceof GradientPaint || paint instanceof LinearGradientPaint) {
+			style(name, "url(#" + gradient(paint) + ")");
+		} else {
+			// other paints are not used by the renderers
+			style(name, "black");
+		}
+		final Composite composite = gc.getComposite();
+		if (composite instanceof AlphaComposite) alpha *= ((AlphaComposite) composite).getAlpha();
+		if (alpha < 1) style(name + "-opacity", format(alpha));
+	}
+
+	/**
+	 * Writes the current style, as attributes or as a class in compact mode
+	 */
+	private void style() {
+		if (context.compact) {
+			write(" class=\"");
+			write(styleClass());
+			write("\"");
+			return;
+		}
+		final List<String> style = context.style;
+		for (int i = 0; i < style.size(); i += 2) {
+			write(" ");
+			write(style.get(i));
+			write("=\"");
+			escape(style.get(i + 1)).write("\"");
+		}
+	}
+
+	/**
+	 * @return the name of the CSS class of the current style
+	 */
+	private String styleClass() {
+		final StringBuilder builder = new StringBuilder();
+		final List<String> style = context.style;
+		for (int i = 0; i < style.size(); i += 2) {
+			if (i > 0) builder.append(";");
+			builder.append(style.get(i)).append(":");
+			final String value = style.get(i + 1);
+			// family names are quoted, so they can contain spaces, and CSS
+			// font sizes need units
+			if (style.get(i).equals("font-family") && !value.endsWith("serif") && !value.equals("monospace"))
+				builder.append("'").append(value.replace("'", "")).append("'");
+			else if (style.get(i).equals("font-size")) builder.append(value).append("px");
+			else builder.append(value);
+		}
+		return context.classes.computeIfAbsent(builder.toString(), key -> "s" + context.classes.size());
+	}
+
+	/**
+	 * Writes a linearGradient element for paint, unless it was already
+	 * written, and returns its id
+	 */
+	private String gradient(Paint paint) {
+		final String written = context.gradients.get(paint);
+		if (written != null) return written;
+		final String id = "g" + context.ids++;
+		context.gradients.put(paint, id);
+		final Point2D start;
+		final Point2D end;
+		final float[] fractions;
+		final Color[] colors;
+		if (paint instanceof GradientPaint) {
+			final GradientPaint gradientPaint = (GradientPaint) paint;
+			start = gradientPaint.getPoint1();
+			end = gradientPaint.getPoint2();
+			fractions = new float[]{0, 1};
+			colors = new Color[]{gradientPaint.getColor1(), gradientPaint.getColor2()};
+		} else {
+			final LinearGradientPaint gradientPaint = (LinearGradientPaint) paint;
+			start = gradientPaint.getStartPoint();
+			end = gradientPaint.getEndPoint();
+			fractions = gradientPaint.getFractions();
+			colors = gradientPaint.getColors();
+		}
+		define(() -> {
+			write("<linearGradient id=\"");
+			write(id);
+			write("\" gradientUnits=\"userSpaceOnUse\" x1=\"");
+			number(start.getX()).write("\" y1=\"");
+			number(start.getY()).write("\" x2=\"");
+			number(end.getX()).write("\" y2=\"");
+			number(end.getY()).write("\">");
+			for (int i = 0; i < fractions.length; i++) {
+				write("<stop offset=\"");
+				number(fractions[i]).write("\" stop-color=\"");
+				color(colors[i]).write("\"");
+				if (colors[i].getAlpha() < 255) {
+					write(" stop-opacity=\"");
+					number(colors[i].getAlpha() / 255.0).write("\"");
+				}
+				write("/>");
+			}
+			write("</linearGradient>\n");
+		});
+		return id;
+	}
+
+	/**
+	 * Writes the transform and clip-path attributes, if needed
+	 */
+	private void attributes() {
+		transformAttribute(gc.getTransform());
+		clipPath(gc.getClip());
+	}
+
+	private void transformAttribute(AffineTransform transform) {
+		if (transform.isIdentity()) return;
+		write(" transform=\"matrix(");
+		number(transform.getScaleX()).write(" ");
+		number(transform.getShearY()).write(" ");
+		number(transform.getShearX()).write(" ");
+		number(transform.getScaleY()).write(" ");
+		number(transform.getTranslateX()).write(" ");
+		number(transform.getTranslateY()).write(")\"");
+	}
+
+	/**
+	 * The clip is written as a clipPath element before the first element that
+	 * uses it. Its coordinates are in user space, as the elements, so clips
+	 * are identified by their path in user space.
+	 */
+	private void clipPath(Shape clip) {
+		if (clip == null) return;
+		final String path = capture(() -> path(clip, 0, 0));
+		String id = context.clips.get(path);
+		if (id == null) {
+			id = "c" + context.ids++;
+			context.clips.put(path, id);
+			final String clipId = id;
+			define(() -> {
+				write("<clipPath id=\"");
+				write(clipId);
+				write("\" clipPathUnits=\"userSpaceOnUse\"><path d=\"");
+				write(path);
+				write("\"");
+				if (clip.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD)
+					write(" clip-rule=\"evenodd\"");
+				write("/></clipPath>\n");
+			});
+		}
+		write(" clip-path=\"url(#");
+		write(id);
+		write(")\"");
+	}
+
+	/**
+	 * Definitions are needed while the element that uses them is being
+	 * written, so they go to a separate buffer, which is sent before the
+	 * element.
+	 */
+	private void define(Runnable definition) {
+		final StringBuilder current = context.buffer;
+		context.buffer = context.pending;
+		try {
+			definition.run();
+		} finally {
+			context.buffer = current;
+		}
+	}
+
+	/**
+	 * @return the text written by writer
+	 */
+	private String capture(Runnable writer) {
+		final StringBuilder current = context.buffer;
+		context.buffer = new StringBuilder();
+		try {
+			writer.run();
+			return context.buffer.toString();
+		} finally {
+			context.buffer = current;
+		}
+	}
+
+	/**
+	 * Writes the color as #rrggbb or, in compact mode, as #rgb when possible
+	 */
+	private SvgWriterGraphics color(Color color) {
+		final int r = color.getRed();
+		final int g = color.getGreen();
+		final int b = color.getBlue();
+		write("#");
+		if (context.compact && r % 17 == 0 && g % 17 == 0 && b % 17 == 0) {
+			write(Integer.toHexString(r / 17));
+			write(Integer.toHexString(g / 17));
+			write(Integer.toHexString(b / 17));
+		} else {
+			final String hex = Integer.toHexString((r << 16) | (g << 8) | b);
+			for (int i = hex.length(); i < 6; i++) write("0");
+			write(hex);
+		}
+		return this;
+	}
+
+	private String format(double value) {
+		return capture(() -> number(value));
+	}
+
+	/**
+	 * Writes value with at most precision decimals and no trailing zeros
+	 */
+	private SvgWriterGraphics number(double value) {
+		final long scale = context.scale;
+		long scaled = Math.round(value * scale);
+		if (scaled < 0) {
+			write("-");
+			scaled = -scaled;
+		}
+		write(Long.toString(scaled / scale));
+		long decimals = scaled % scale;
+		if (decimals != 0) {
+			int digits = context.precision;
+			while (decimals % 10 == 0) {
+				decimals /= 10;
+				digits--;
+			}
+			write(".");
+			final String text = Long.toString(decimals);
+			for (int i = text.length(); i < digits; i++) write("0");
+			write(text);
+		}
+		return this;
+	}
+
+	private SvgWriterGraphics escape(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			final char c = text.charAt(i);
+			switch (c) {
+				case '&':
+					write("&amp;");
+					break;
+				case '<':
+					write("&lt;");
+					break;
+				case '>':
+					write("&gt;");
+					break;
+				case '"':
+					write("&quot;");
+					break;
+				default:
+					context.buffer.append(c);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Text is collected in a buffer, which is sent to the writer after each
+	 * element, preceded by any definition the element needs.
+	 */
+	private SvgWriterGraphics write(String text) {
+		context.buffer.append(text);
+		if (context.buffer == context.element && text.endsWith("\n")) context.flush();
+		return this;
+	}
+
+	/**
+	 * State shared by the graphics created from the same writer.
+	 */
+	private static class Context {
+		private final Writer writer;
+		private final StringBuilder element = new StringBuilder();
+		private final StringBuilder pending = new StringBuilder();
+		private StringBuilder buffer = element;
+		private final List<String> style = new ArrayList<>();
+		private final Map<String, String> classes = new LinkedHashMap<>();
+		private final Map<Paint, String> gradients = new IdentityHashMap<>();
+		private final Map<Image, String> images = new IdentityHashMap<>();
+		private final Map<String, String> clips = new HashMap<>();
+		/** Relative paths of shapes, with the id of their definition */
+		private final Map<String, String> shapes = new HashMap<>();
+		private final StringBuilder merge = new StringBuilder();
+		private String mergeClass;
+		private final Graphics2D metrics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+		private boolean compact;
+		private int precision = 3;
+		private long scale = 1000;
+		private int ids;
+		private long size;
+
+		Context(Writer writer) {
+			this.writer = writer;
+		}
+
+		/**
+		 * Sends the pending definitions and the last element to the writer
+		 */
+		void flush() {
+			try {
+				if (pending.length() > 0) {
+					writer.append(pending);
+					size += pending.length();
+					pending.setLength(0);
+				}
+				writer.append(element);
+				size += element.length();
+				element.setLength(0);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package org.reactome.server.tools.diagram.exporter.common.content;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the client against a local stub of the ContentService
+ */
+public class ContentServiceClientTest {
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private HttpServer server;
+	private String host;
+	private String service;
+
+	@Before
+	public void setUp() throws IOException {
+		host = ContentServiceClient.getHost();
+		service = ContentServiceClient.getService();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/ContentService/data/diagram/", exchange -> {
+			requests.incrementAndGet();
+			final String term = exchange.getRequestURI().getPath().replaceAll(".*/entities/", "");
+			int code = 200;
+			String body = "[{\"stId\":\"R-HSA-" + term + "\"}]";
+			if (term.equals("error")) {
+				code = 500;
+				body = "{\"code\":500}";
+			} else if (term.equals("none")) {
+				code = 404;
+				body = "{\"code\":404}";
+			} else if (term.equals("slow")) {
+				try {
+					Thread.sleep(2000);
+				} catch (InterruptedException ignored) {
+				}
+			}
+			final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(code, bytes.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(bytes);
+			}
+		});
+		server.setExecutor(Executors.newFixedThreadPool(8));
+		server.start();
+		ContentServiceClient.setHost("http://localhost:" + server.getAddress().getPort());
+		ContentServiceClient.setService("/ContentService");
+		ContentServiceClient.setReadTimeout(500);
+		ContentServiceClient.clearCache();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		ContentServiceClient.setHost(host);
+		ContentServiceClient.setService(service);
+		ContentServiceClient.setReadTimeout(5000);
+		ContentServiceClient.setFlaggedTimeout(10_000);
+		ContentServiceClient.clearCache();
+	}
+
+	@Test
+	public void testCache() {
+		final List<ContentServiceResponse> responses = ContentServiceClient.getFlagged("1", "R-HSA-0", Collections.singletonList("R-HSA-1"));
+		Assert.assertNotNull(responses);
+		Assert.assertEquals("R-HSA-1", responses.get(0).getStId());
+		Assert.assertSame(responses, ContentServiceClient.getFlagged("1", "R-HSA-0", Collections.singletonList("R-HSA-1")));
+		Assert.assertEquals(1, requests.get());
+		// other pathways, other query
+		ContentServiceClient.getFlagged("1", "R-HSA-0", Arrays.asList("R-HSA-1", "R-HSA-2"));
+		Assert.assertEquals(2, requests.get());
+	}
+
+	@Test
+	public void testHostChange() {
+		final List<ContentServiceResponse> responses = ContentServiceClient.getFlagged("1", "R-HSA-0", Collections.singletonList("R-HSA-1"));
+		// same server, other host name
+		ContentServiceClient.setHost("http://127.0.0.1:" + server.getAddress().getPort());
+		Assert.assertNotSame(responses, ContentServiceClient.getFlagged("1", "R-HSA-0", Collections.singletonList("R-HSA-1")));
+		Assert.assertEquals(2, requests.get());
+	}
+
+	@Test
+	public void testNotFound() {
+		Assert.assertEquals(Collections.emptyList(), ContentServiceClient.getFlagged("none", "R-HSA-0", Collections.singletonList("R-HSA-1")));
+		Assert.assertEquals(Collections.emptyList(), ContentServiceClient.getFlagged("none", "R-HSA-0", Collections.singletonList("R-HSA-1")));
+		// terms without pathways are cached too
+		Assert.assertEquals(1, requests.get());
+	}
+
+	@Test
+	public void testFlaggedTimeout() {
+		ContentServiceClient.setFlaggedTimeout(200);
+		final long start = System.currentTimeMillis();
+		final Map<String, List<ContentServiceResponse>> responses = ContentServiceClient.getFlagged(
+				Arrays.asList("1", "slow"), "R-HSA-0", Collections.singletonList("R-HSA-1"));
+		// the read timeout is 500
+		Assert.assertTrue(System.currentTimeMillis() - start < 500);
+		Assert.assertEquals("R-HSA-1", responses.get("1").get(0).getStId());
+		Assert.assertTrue(responses.containsKey("slow"));
+		Assert.assertNull(responses.get("slow"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testUnmodifiable() {
+		ContentServiceClient.getFlagged("1", "R-HSA-0", Collections.singletonList("R-HSA-1")).clear();
+	}
+
+	@Test
+	public void testParallel() {
+		final long start = System.currentTimeMillis();
+		final Map<String, List<ContentServiceResponse>> responses = ContentServiceClient.getFlagged(
+				Arrays.asList("1", "2", "3", "slow", "error"), "R-HSA-0", Collections.singletonList("R-HSA-1"));
+		Assert.assertEquals(5, responses.size());
+		Assert.assertEquals("R-HSA-3", responses.get("3").get(0).getStId());
+		// timed out
+		Assert.assertNull(responses.get("slow"));
+		Assert.assertNull(responses.get("error"));
+		Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+		// errors are not cached
+		ContentServiceClient.getFlagged("error", "R-HSA-0", Collections.singletonList("R-HSA-1"));
+		Assert.assertEquals(6, requests.get());
+	}
+}
@@ -0,0 +1,54 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MemoryBudgetTest {
+
+	@Test
+	public void testReserve() {
+		final MemoryBudget budget = new MemoryBudget(100, 0);
+		try (MemoryBudget.Reservation ignored = budget.reserve(60)) {
+			Assert.assertEquals(60, budget.getUsed());
+			try (MemoryBudget.Reservation ignored2 = budget.reserve(40)) {
+				Assert.assertEquals(100, budget.getUsed());
+			}
+		}
+		Assert.assertEquals(0, budget.getUsed());
+	}
+
+	@Test(expected = MemoryBudgetException.class)
+	public void testTooLarge() {
+		new MemoryBudget(100, 10_000).reserve(101);
+	}
+
+	@Test
+	public void testFailFast() {
+		final MemoryBudget budget = new MemoryBudget(100, 0);
+		try (MemoryBudget.Reservation ignored = budget.reserve(60)) {
+			budget.reserve(50);
+			Assert.fail("Budget exhausted, reserve should fail");
+		} catch (MemoryBudgetException ignored) {
+		}
+		Assert.assertEquals(0, budget.getUsed());
+	}
+
+	@Test
+	public void testWait() throws InterruptedException {
+		final MemoryBudget budget = new MemoryBudget(100, 10_000);
+		final MemoryBudget.Reservation reservation = budget.reserve(60);
+		final Thread thread = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException ignored) {
+			}
+			reservation.close();
+		});
+		thread.start();
+		// blocks until the other thread closes its reservation
+		try (MemoryBudget.Reservation ignored = budget.reserve(50)) {
+			Assert.assertEquals(50, budget.getUsed());
+		}
+		thread.join();
+	}
+}
@@ -0,0 +1,85 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class OffHeapDataBufferTest {
+
+	private static final int WIDTH = 300;
+	private static final int HEIGHT = 200;
+
+	@Test
+	public void testDirect() throws IOException {
+		final OffHeapDataBuffer buffer = OffHeapDataBuffer.allocate(WIDTH * HEIGHT);
+		assertImage(buffer);
+	}
+
+	@Test
+	public void testBudget() {
+		final MemoryBudget budget = OffHeapDataBuffer.getDirectMemoryBudget();
+		final long used = budget.getUsed();
+		final OffHeapDataBuffer buffer = OffHeapDataBuffer.allocate(WIDTH * HEIGHT);
+		final BufferedImage image = OffHeapDataBuffer.createImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB, buffer);
+		Assert.assertEquals(used + 4L * WIDTH * HEIGHT, budget.getUsed());
+		RasterPool.release(image);
+		Assert.assertEquals(used, budget.getUsed());
+		// a second release must not return the memory twice
+		buffer.release();
+		Assert.assertEquals(used, budget.getUsed());
+	}
+
+	@Test(expected = MemoryBudgetException.class)
+	public void testBudgetExceeded() {
+		final MemoryBudget budget = OffHeapDataBuffer.getDirectMemoryBudget();
+		final long capacity = budget.getCapacity();
+		final long timeout = budget.getTimeout();
+		budget.setCapacity(4L * WIDTH * HEIGHT - 1);
+		budget.setTimeout(0);
+		try {
+			OffHeapDataBuffer.allocate(WIDTH * HEIGHT);
+		} finally {
+			budget.setCapacity(capacity);
+			budget.setTimeout(timeout);
+		}
+	}
+
+	@Test
+	public void testMapped() throws IOException {
+		final File file = File.createTempFile("raster", ".bin");
+		file.deleteOnExit();
+		final OffHeapDataBuffer buffer = OffHeapDataBuffer.map(file, WIDTH * HEIGHT);
+		assertImage(buffer);
+		Assert.assertEquals(4L * WIDTH * HEIGHT, file.length());
+	}
+
+	private void assertImage(OffHeapDataBuffer buffer) throws IOException {
+		final BufferedImage image = OffHeapDataBuffer.createImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB, buffer);
+		// second row, in bulk
+		final int[] row = new int[WIDTH];
+		Arrays.fill(row, Color.RED.getRGB());
+		buffer.put(WIDTH, row, 0, WIDTH);
+		// and a rectangle with a Graphics2D
+		final Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(Color.BLUE);
+		graphics.fillRect(100, 100, 50, 50);
+		graphics.dispose();
+
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RasterOutput.save(image, "png", os);
+		final BufferedImage read = ImageIO.read(new ByteArrayInputStream(os.toByteArray()));
+		Assert.assertEquals(WIDTH, read.getWidth());
+		Assert.assertEquals(HEIGHT, read.getHeight());
+		Assert.assertEquals(Color.BLACK.getRGB(), read.getRGB(10, 0));
+		Assert.assertEquals(Color.RED.getRGB(), read.getRGB(10, 1));
+		Assert.assertEquals(Color.BLUE.getRGB(), read.getRGB(120, 120));
+	}
+}
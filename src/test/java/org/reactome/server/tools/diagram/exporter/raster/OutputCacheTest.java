@@ -0,0 +1,133 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class OutputCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testMemory() {
+		final OutputCache cache = new OutputCache(100);
+		cache.put("a", new byte[40]);
+		cache.put("b", new byte[40]);
+		Assert.assertNotNull(cache.get("a"));
+		// b is the least recently used
+		cache.put("c", new byte[40]);
+		Assert.assertNotNull(cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		Assert.assertNotNull(cache.get("c"));
+		// larger than the cache
+		cache.put("d", new byte[101]);
+		Assert.assertNull(cache.get("d"));
+		Assert.assertEquals(3, cache.getMemoryHits());
+		Assert.assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testDisk() throws IOException {
+		final File directory = folder.newFolder();
+		final byte[] bytes = {1, 2, 3};
+		new OutputCache(100, directory, 1000).put("key", bytes);
+		final File[] files = directory.listFiles();
+		Assert.assertNotNull(files);
+		Assert.assertEquals(1, files.length);
+
+		// a new cache, as after a restart
+		final OutputCache cache = new OutputCache(100, directory, 1000);
+		Assert.assertArrayEquals(bytes, cache.get("key"));
+		Assert.assertEquals(1, cache.getDiskHits());
+		Assert.assertArrayEquals(bytes, cache.get("key"));
+		Assert.assertEquals(1, cache.getMemoryHits());
+	}
+
+	@Test
+	public void testTransfer() throws IOException {
+		final File directory = folder.newFolder();
+		final OutputCache cache = new OutputCache(100, directory, 100_000);
+		final byte[] bytes = new byte[50_000];
+		for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+		cache.put("key", bytes);
+		Assert.assertNull(cache.getFromMemory("key"));
+		final File file = cache.getFile("key");
+		Assert.assertNotNull(file);
+		Assert.assertNull(cache.getFile("other"));
+
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RasterOutput.transfer(file, os);
+		Assert.assertArrayEquals(bytes, os.toByteArray());
+
+		final File copy = folder.newFile();
+		try (FileChannel channel = FileChannel.open(copy.toPath(), StandardOpenOption.WRITE)) {
+			RasterOutput.transfer(file, channel);
+		}
+		Assert.assertArrayEquals(bytes, Files.readAllBytes(copy.toPath()));
+	}
+
+	@Test
+	public void testDiskEviction() throws IOException {
+		final File directory = folder.newFolder();
+		final OutputCache cache = new OutputCache(0, directory, 1000);
+		for (int i = 0; i < 5; i++) cache.put("key" + i, new byte[300]);
+		final File[] files = directory.listFiles();
+		Assert.assertNotNull(files);
+		// evicts down to 90% of the max size
+		Assert.assertEquals(3, files.length);
+	}
+
+	@Test
+	public void testTemporaryFiles() throws IOException {
+		final File directory = folder.newFolder();
+		final File temp = new File(directory, "output.tmp");
+		Files.write(temp.toPath(), new byte[900]);
+		final OutputCache cache = new OutputCache(0, directory, 1000);
+		Assert.assertFalse(temp.exists());
+		for (int i = 0; i < 3; i++) cache.put("key" + i, new byte[300]);
+		// the temporary file is not counted, so nothing is evicted
+		final File[] files = directory.listFiles();
+		Assert.assertNotNull(files);
+		Assert.assertEquals(3, files.length);
+	}
+
+	@Test
+	public void testFlagKeys() throws Exception {
+		final String resources = "src/test/resources/org/reactome/server/tools/diagram/exporter/";
+		final RasterExporter exporter = new RasterExporter(resources + "diagram", resources + "ehld",
+				resources + "analysis", resources + "svgsummary.txt");
+		final File directory = folder.newFolder();
+		exporter.setOutputCache(new OutputCache(0, directory, 10_000_000));
+		final RasterArgs joined = new RasterArgs("R-HSA-69620", "png");
+		joined.setFlags(Collections.singletonList("CCNE1,CDK2"));
+		final RasterArgs split = new RasterArgs("R-HSA-69620", "png");
+		split.setFlags(Arrays.asList("CDK2", "CCNE1"));
+		exporter.exportToStream(joined, new ByteArrayOutputStream());
+		exporter.exportToStream(split, new ByteArrayOutputStream());
+		final File[] files = directory.listFiles();
+		Assert.assertNotNull(files);
+		Assert.assertEquals(2, files.length);
+	}
+
+	@Test
+	public void testHash() throws IOException {
+		final File file = folder.newFile();
+		Files.write(file.toPath(), new byte[]{1});
+		final String hash = OutputCache.hash(file);
+		Assert.assertEquals(hash, OutputCache.hash(file));
+		Files.write(file.toPath(), new byte[]{1, 2});
+		Assert.assertNotEquals(hash, OutputCache.hash(file));
+	}
+}
@@ -0,0 +1,106 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+public class RasterExporterAsyncTest {
+
+	private static final String ANALYSIS_PATH = "src/test/resources/org/reactome/server/tools/diagram/exporter/analysis";
+	private static final String DIAGRAM_PATH = "src/test/resources/org/reactome/server/tools/diagram/exporter/diagram";
+	private static final String EHLD_PATH = "src/test/resources/org/reactome/server/tools/diagram/exporter/ehld";
+	private static final String SVG_SUMMARY = "src/test/resources/org/reactome/server/tools/diagram/exporter/svgsummary.txt";
+
+	private static RasterExporter createExporter() {
+		return new RasterExporter(DIAGRAM_PATH, EHLD_PATH, ANALYSIS_PATH, SVG_SUMMARY);
+	}
+
+	/**
+	 * A fake render that only finishes when interrupted
+	 */
+	private static RasterExporter.Export<String> endless(CountDownLatch started, CountDownLatch interrupted) {
+		return () -> {
+			started.countDown();
+			try {
+				while (true) {
+					RasterRenderer.checkInterrupted();
+					Thread.sleep(5);
+				}
+			} catch (CancellationException | InterruptedException e) {
+				interrupted.countDown();
+				throw e;
+			}
+		};
+	}
+
+	@Test
+	public void testComplete() throws Exception {
+		final RasterExporter exporter = createExporter();
+		Assert.assertEquals("done", exporter.submit(() -> "done").get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testException() throws InterruptedException, TimeoutException {
+		final RasterExporter exporter = createExporter();
+		try {
+			exporter.submit(() -> {
+				throw new IllegalStateException("failed");
+			}).get(5, TimeUnit.SECONDS);
+			Assert.fail("Export should fail");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testTimeout() throws InterruptedException {
+		final RasterExporter exporter = createExporter();
+		exporter.setAsyncTimeout(100);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final CompletableFuture<String> future = exporter.submit(endless(new CountDownLatch(1), interrupted));
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			Assert.fail("Export should time out");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		} catch (TimeoutException e) {
+			Assert.fail("Export timeout not applied");
+		}
+		Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		final RasterExporter exporter = createExporter();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final CompletableFuture<String> future = exporter.submit(endless(started, interrupted));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		future.cancel(true);
+		Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testQueueFull() throws InterruptedException {
+		final RasterExporter exporter = createExporter();
+		exporter.setAsyncExecutor(1, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final CompletableFuture<String> running = exporter.submit(endless(started, interrupted));
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		final CompletableFuture<String> queued = exporter.submit(() -> "queued");
+		final CompletableFuture<String> rejected = exporter.submit(() -> "rejected");
+		try {
+			rejected.get(5, TimeUnit.SECONDS);
+			Assert.fail("Queue is full, export should be rejected");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		} catch (TimeoutException e) {
+			Assert.fail("Export was not rejected");
+		}
+		running.cancel(true);
+		Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("queued", queued.join());
+	}
+}
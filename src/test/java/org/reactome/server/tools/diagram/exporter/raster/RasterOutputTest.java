@@ -0,0 +1,28 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import org.apache.batik.anim.dom.SVGDOMImplementation;
+import org.apache.batik.util.SVGConstants;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.svg.SVGDocument;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+public class RasterOutputTest {
+
+	@Test
+	public void testSvgz() throws Exception {
+		final SVGDocument document = (SVGDocument) SVGDOMImplementation.getDOMImplementation()
+				.createDocument(SVGConstants.SVG_NAMESPACE_URI, "svg", null);
+		document.getRootElement().setAttribute(SVGConstants.SVG_VIEW_BOX_ATTRIBUTE, "0 0 10 10");
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RasterOutput.saveSvgz(document, os, false);
+		final String svg = IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(os.toByteArray())), StandardCharsets.UTF_8);
+		Assert.assertTrue(svg.contains("<svg"));
+		Assert.assertTrue(svg.contains("viewBox=\"0 0 10 10\""));
+	}
+}
@@ -0,0 +1,80 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class RasterPoolTest {
+
+	@Before
+	public void setUp() {
+		RasterPool.clear();
+	}
+
+	@Test
+	public void testTypes() {
+		final BufferedImage rgb = RasterPool.acquire(1000, 800, BufferedImage.TYPE_INT_RGB);
+		Assert.assertEquals(BufferedImage.TYPE_INT_RGB, rgb.getType());
+		final BufferedImage argb = RasterPool.acquire(1000, 800, BufferedImage.TYPE_INT_ARGB);
+		Assert.assertEquals(BufferedImage.TYPE_INT_ARGB, argb.getType());
+		Assert.assertEquals(0, argb.getRGB(500, 400));
+	}
+
+	@Test
+	public void testReuse() {
+		final BufferedImage image = RasterPool.acquire(1000, 800, BufferedImage.TYPE_INT_ARGB);
+		final Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(Color.RED);
+		graphics.fillRect(0, 0, 1000, 800);
+		graphics.dispose();
+		final int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		RasterPool.release(image);
+
+		// Slightly smaller, but same size class
+		final BufferedImage other = RasterPool.acquire(990, 800, BufferedImage.TYPE_INT_RGB);
+		Assert.assertSame(data, ((DataBufferInt) other.getRaster().getDataBuffer()).getData());
+		Assert.assertEquals(990, other.getWidth());
+		Assert.assertEquals(Color.BLACK.getRGB(), other.getRGB(989, 799));
+		Assert.assertEquals(1, RasterPool.getHits());
+		Assert.assertEquals(1, RasterPool.getMisses());
+		Assert.assertEquals(0.5, RasterPool.getHitRate(), 1e-9);
+	}
+
+	@Test
+	public void testSmallImagesNotPooled() {
+		final BufferedImage image = RasterPool.acquire(10, 10, BufferedImage.TYPE_INT_RGB);
+		RasterPool.release(image);
+		RasterPool.acquire(10, 10, BufferedImage.TYPE_INT_RGB);
+		Assert.assertEquals(0, RasterPool.getHits() + RasterPool.getMisses());
+	}
+
+	@Test
+	public void testForeignImagesIgnored() {
+		RasterPool.release(new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB));
+		RasterPool.acquire(1000, 800, BufferedImage.TYPE_INT_RGB);
+		Assert.assertEquals(0, RasterPool.getHits());
+	}
+
+	@Test
+	public void testEncode() throws IOException {
+		final BufferedImage image = RasterPool.acquire(400, 300, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D graphics = image.createGraphics();
+		graphics.setPaint(Color.BLUE);
+		graphics.fillRect(100, 100, 200, 100);
+		graphics.dispose();
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RasterOutput.save(image, "png", os);
+		final BufferedImage read = ImageIO.read(new ByteArrayInputStream(os.toByteArray()));
+		Assert.assertEquals(400, read.getWidth());
+		Assert.assertEquals(Color.BLUE.getRGB(), read.getRGB(200, 150));
+		Assert.assertEquals(Color.BLACK.getRGB(), read.getRGB(10, 10));
+	}
+}
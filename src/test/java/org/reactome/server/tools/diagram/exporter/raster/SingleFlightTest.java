@@ -0,0 +1,91 @@
+package org.reactome.server.tools.diagram.exporter.raster;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+
+	private static final int THREADS = 8;
+
+	@Test
+	public void testCoalesce() throws Exception {
+		final SingleFlight<String, Object> flight = new SingleFlight<>();
+		final AtomicInteger renders = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		final List<Future<Object>> results = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++)
+			results.add(executor.submit(() -> {
+				start.await();
+				return flight.execute("R-HSA-1", () -> {
+					renders.incrementAndGet();
+					Thread.sleep(300);
+					return new Object();
+				});
+			}));
+		start.countDown();
+		final Object first = results.get(0).get(5, TimeUnit.SECONDS);
+		for (Future<Object> result : results)
+			Assert.assertSame(first, result.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, renders.get());
+		Assert.assertEquals(THREADS - 1, flight.getCoalesced());
+		executor.shutdown();
+
+		// Once finished, the next call renders again
+		Assert.assertNotSame(first, flight.execute("R-HSA-1", Object::new));
+	}
+
+	@Test
+	public void testException() throws Exception {
+		final SingleFlight<String, Object> flight = new SingleFlight<>();
+		final CountDownLatch running = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		final Future<Object> owner = executor.submit(() -> flight.execute("key", () -> {
+			running.countDown();
+			Thread.sleep(200);
+			throw new IllegalArgumentException("failed");
+		}));
+		running.await();
+		try {
+			flight.execute("key", Object::new);
+			Assert.fail("Exception should be shared");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("failed", e.getMessage());
+		}
+		try {
+			owner.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		executor.shutdown();
+	}
+
+	@Test
+	public void testOwnerCancelled() throws Exception {
+		final SingleFlight<String, String> flight = new SingleFlight<>();
+		final CountDownLatch running = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		final Future<String> owner = executor.submit(() -> flight.execute("key", () -> {
+			running.countDown();
+			while (true) {
+				RasterRenderer.checkInterrupted();
+				Thread.yield();
+			}
+		}));
+		running.await();
+		final ExecutorService waiting = Executors.newSingleThreadExecutor();
+		final Future<String> waiter = waiting.submit(() -> flight.execute("key", () -> "rendered again"));
+		Thread.sleep(100);
+		owner.cancel(true);
+		// the waiter is not cancelled, it renders by itself
+		Assert.assertEquals("rendered again", waiter.get(5, TimeUnit.SECONDS));
+		executor.shutdown();
+		waiting.shutdown();
+	}
+}
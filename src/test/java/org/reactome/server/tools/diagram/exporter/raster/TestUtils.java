@@ -1,5 +1,7 @@
 package org.reactome.server.tools.diagram.exporter.raster;
 
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.util.XMLResourceDescriptor;
 import org.junit.Assert;
 import org.reactome.server.analysis.core.result.AnalysisStoredResult;
 import org.reactome.server.analysis.core.result.utils.TokenUtils;
@@ -10,9 +12,8 @@ import org.reactome.server.tools.diagram.exporter.raster.ehld.EhldRendererTest;
 import org.w3c.dom.svg.SVGDocument;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
+import java.io.*;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Supporting methods for testing diagram renderering. It is used both in {@link
@@ -138,4 +139,35 @@ public class TestUtils {
 		}
 
 	}
+
+	public static void renderSvgStream(RasterArgs args, AnalysisStoredResult result) {
+		try {
+			final File file = new File(OUTPUT_FOLDER, getFileName(args, result));
+			try (OutputStream os = new FileOutputStream(file)) {
+				EXPORTER.exportToSvgStream(args, os, result);
+			}
+			// the output must be a valid SVG
+			new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName())
+					.createSVGDocument(file.toURI().toString());
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	public static void renderSvgz(RasterArgs args) {
+		try {
+			final File file = new File(OUTPUT_FOLDER, getFileName(args, null));
+			try (OutputStream os = new FileOutputStream(file)) {
+				EXPORTER.exportToStream(args, os);
+			}
+			try (InputStream is = new GZIPInputStream(new FileInputStream(file))) {
+				new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName())
+						.createSVGDocument(file.toURI().toString(), is);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			Assert.fail(e.getMessage());
+		}
+	}
 }
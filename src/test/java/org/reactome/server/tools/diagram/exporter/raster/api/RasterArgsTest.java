@@ -0,0 +1,46 @@
+package org.reactome.server.tools.diagram.exporter.raster.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class RasterArgsTest {
+
+	@Test
+	public void testKeyOrder() {
+		final RasterArgs args = new RasterArgs("R-HSA-69620", "png");
+		args.setFlags(Arrays.asList("B", "A"));
+		final RasterArgs other = new RasterArgs("R-HSA-69620", "png");
+		other.setFlags(Arrays.asList("A", "B"));
+		Assert.assertEquals(args.getCanonicalKey(), other.getCanonicalKey());
+	}
+
+	@Test
+	public void testKeySeparators() {
+		final RasterArgs joined = new RasterArgs("R-HSA-69620", "png");
+		joined.setFlags(Collections.singletonList("a,b"));
+		final RasterArgs split = new RasterArgs("R-HSA-69620", "png");
+		split.setFlags(Arrays.asList("a", "b"));
+		Assert.assertNotEquals(joined.getCanonicalKey(), split.getCanonicalKey());
+
+		final RasterArgs flagged = new RasterArgs("R-HSA-69620", "png");
+		flagged.setFlags(Collections.singletonList("A|B"));
+		flagged.setSelected(Collections.singletonList("C"));
+		final RasterArgs selected = new RasterArgs("R-HSA-69620", "png");
+		selected.setFlags(Collections.singletonList("A"));
+		selected.setSelected(Collections.singletonList("B|C"));
+		Assert.assertNotEquals(flagged.getCanonicalKey(), selected.getCanonicalKey());
+	}
+
+	@Test
+	public void testAnimatedKey() {
+		final RasterArgs args = new RasterArgs("R-HSA-69620", "gif");
+		args.setColumn(1);
+		final RasterArgs other = new RasterArgs("R-HSA-69620", "png");
+		other.setColumn(2);
+		Assert.assertEquals(args.getAnimatedKey(), other.getAnimatedKey());
+		Assert.assertNotEquals(args.getCanonicalKey(), other.getCanonicalKey());
+	}
+}
@@ -1,12 +1,14 @@
 package org.reactome.server.tools.diagram.exporter.raster.diagram;
 
 
+import org.junit.Assert;
 import org.junit.Test;
 import org.reactome.server.analysis.core.result.AnalysisStoredResult;
 import org.reactome.server.tools.diagram.exporter.raster.TestUtils;
 import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
 import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorProfiles;
 
+import java.awt.*;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -217,4 +219,18 @@ public class DiagramRendererTest {
 		TestUtils.render(args, result);
 	}
 
+	@Test
+	public void testMergeRegions() {
+		final List<Rectangle> merged = DiagramRenderer.merge(Arrays.asList(
+				new Rectangle(0, 0, 10, 10),
+				new Rectangle(5, 5, 10, 10),      // overlaps the first
+				new Rectangle(15, 0, 5, 5),       // adjacent to the second
+				new Rectangle(100, 100, 10, 10),  // apart
+				new Rectangle(50, 0, 10, 10),     // apart, until the next one
+				new Rectangle(20, 0, 30, 2)));    // joins the first group with the previous one
+		Assert.assertEquals(2, merged.size());
+		Assert.assertTrue(merged.contains(new Rectangle(0, 0, 60, 15)));
+		Assert.assertTrue(merged.contains(new Rectangle(100, 100, 10, 10)));
+	}
+
 }
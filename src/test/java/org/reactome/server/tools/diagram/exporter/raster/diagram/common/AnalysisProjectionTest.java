@@ -0,0 +1,46 @@
+package org.reactome.server.tools.diagram.exporter.raster.diagram.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactome.server.analysis.core.result.AnalysisStoredResult;
+import org.reactome.server.tools.diagram.data.graph.Graph;
+import org.reactome.server.tools.diagram.exporter.common.ResourcesFactory;
+import org.reactome.server.tools.diagram.exporter.raster.TestUtils;
+import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
+import org.reactome.server.tools.diagram.exporter.raster.diagram.renderables.RenderableNode;
+
+public class AnalysisProjectionTest {
+
+	private static final String DIAGRAM_PATH = "src/test/resources/org/reactome/server/tools/diagram/exporter/diagram";
+	private static final String RESOURCE = "TOTAL";
+
+	@Test
+	public void testReuse() throws Exception {
+		final String stId = "R-HSA-69620";
+		final AnalysisStoredResult result = TestUtils.getResult(TestUtils.TOKEN_EXPRESSION_1);
+		final Graph graph = ResourcesFactory.getGraph(DIAGRAM_PATH, stId);
+		final RasterArgs pngArgs = new RasterArgs(stId, "png");
+		pngArgs.setResource(RESOURCE);
+		final RasterArgs gifArgs = new RasterArgs(stId, "gif");
+		gifArgs.setResource(RESOURCE);
+		final DiagramIndex png = new DiagramIndex(ResourcesFactory.getDiagram(DIAGRAM_PATH, stId), graph, pngArgs, result);
+		final DiagramIndex gif = new DiagramIndex(ResourcesFactory.getDiagram(DIAGRAM_PATH, stId), graph, gifArgs, result);
+
+		final AnalysisProjection projection = AnalysisProjection.get(TestUtils.TOKEN_EXPRESSION_1, RESOURCE, stId, graph);
+		Assert.assertNotNull(projection);
+		Assert.assertSame(projection.getSummary(), png.getAnalysis().getResult());
+		Assert.assertSame(projection.getSummary(), gif.getAnalysis().getResult());
+		int hit = 0;
+		for (RenderableNode node : png.getNodes()) {
+			final RenderableNode other = gif.getNode(node.getNode().getId());
+			Assert.assertEquals(node.getEnrichment(), other.getEnrichment());
+			Assert.assertEquals(node.getExpressionValue(), other.getExpressionValue());
+			Assert.assertEquals(node.getHitExpressions(), other.getHitExpressions());
+			Assert.assertArrayEquals(node.getExpressions(0), other.getExpressions(0), 0);
+			if (node.getExpressions(0) != null && node.getExpressions(0).length > 0) hit++;
+		}
+		Assert.assertTrue(hit > 0);
+		// a different diagram of the same analysis is projected on its own
+		Assert.assertNull(AnalysisProjection.get(TestUtils.TOKEN_EXPRESSION_1, RESOURCE, "R-HSA-109606", graph));
+	}
+}
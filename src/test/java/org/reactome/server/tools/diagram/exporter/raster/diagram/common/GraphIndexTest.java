@@ -0,0 +1,98 @@
+package org.reactome.server.tools.diagram.exporter.raster.diagram.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactome.server.tools.diagram.data.graph.EntityNode;
+import org.reactome.server.tools.diagram.data.graph.EventNode;
+import org.reactome.server.tools.diagram.data.graph.Graph;
+import org.reactome.server.tools.diagram.exporter.common.ResourcesFactory;
+
+import java.util.*;
+
+public class GraphIndexTest {
+
+	private static final String DIAGRAM_PATH = "src/test/resources/org/reactome/server/tools/diagram/exporter/diagram";
+
+	/**
+	 * Leaves as they were computed before the index
+	 */
+	private static Set<Long> getLeaves(Map<Long, EntityNode> nodes, EntityNode node) {
+		if (node.getChildren() == null) return Collections.singleton(node.getDbId());
+		final Set<Long> leaves = new HashSet<>();
+		for (Long child : node.getChildren())
+			if (nodes.containsKey(child)) leaves.addAll(getLeaves(nodes, nodes.get(child)));
+		return leaves;
+	}
+
+	/**
+	 * Terms as they were resolved before the index
+	 */
+	private static Long getDbId(Graph graph, String term) {
+		for (EntityNode node : graph.getNodes()) {
+			if (term.equalsIgnoreCase(node.getStId())
+					|| term.equalsIgnoreCase(node.getIdentifier())
+					|| node.getGeneNames() != null && node.getGeneNames().stream().anyMatch(term::equalsIgnoreCase))
+				return node.getDbId();
+		}
+		for (EventNode event : graph.getEdges())
+			if (term.equalsIgnoreCase(event.getStId()))
+				return event.getDbId();
+		return null;
+	}
+
+	@Test
+	public void testLeaves() throws Exception {
+		final Graph graph = ResourcesFactory.getGraph(DIAGRAM_PATH, "R-HSA-5687128");
+		final GraphIndex index = GraphIndex.get(graph);
+		// graphs are cached, and so are their indexes
+		Assert.assertSame(graph, ResourcesFactory.getGraph(DIAGRAM_PATH, "R-HSA-5687128"));
+		Assert.assertSame(index, GraphIndex.get(graph));
+
+		final Map<Long, EntityNode> nodes = new HashMap<>();
+		graph.getNodes().forEach(node -> nodes.put(node.getDbId(), node));
+		for (EntityNode node : graph.getNodes()) {
+			final Set<Long> leaves = new HashSet<>();
+			index.getLeaves(node).stream().forEach(leaf -> leaves.add(index.getLeaf(leaf).getDbId()));
+			Assert.assertEquals(getLeaves(nodes, node), leaves);
+		}
+	}
+
+	@Test
+	public void testIdentifiers() throws Exception {
+		final Graph graph = ResourcesFactory.getGraph(DIAGRAM_PATH, "R-HSA-376176");
+		final GraphIndex index = GraphIndex.get(graph);
+		int leaves = 0;
+		for (EntityNode node : graph.getNodes()) {
+			if (node.getChildren() != null || node.getIdentifier() == null) continue;
+			leaves++;
+			final BitSet numbers = index.getLeaves(node.getIdentifier());
+			Assert.assertNotNull(numbers);
+			Assert.assertTrue(numbers.stream().anyMatch(leaf -> index.getLeaf(leaf) == node));
+		}
+		Assert.assertTrue(leaves > 0);
+		Assert.assertNull(index.getLeaves("not an identifier"));
+	}
+
+	@Test
+	public void testTerms() throws Exception {
+		final Graph graph = ResourcesFactory.getGraph(DIAGRAM_PATH, "R-HSA-5687128");
+		final GraphIndex index = GraphIndex.get(graph);
+		final Set<String> terms = new HashSet<>();
+		for (EntityNode node : graph.getNodes()) {
+			terms.add(node.getStId());
+			terms.add(node.getIdentifier());
+			if (node.getGeneNames() != null) terms.addAll(node.getGeneNames());
+		}
+		graph.getEdges().forEach(event -> terms.add(event.getStId()));
+		terms.remove(null);
+		for (String term : terms) {
+			Assert.assertEquals(term, getDbId(graph, term), index.getDbId(term));
+			Assert.assertEquals(term, getDbId(graph, term), index.getDbId(term.toUpperCase()));
+		}
+		final EntityNode node = graph.getNodes().iterator().next();
+		Assert.assertEquals(node.getDbId(), index.getDbId(String.valueOf(node.getDbId())));
+		final EventNode event = graph.getEdges().iterator().next();
+		Assert.assertEquals(event.getDbId(), index.getDbId(String.valueOf(event.getDbId())));
+		Assert.assertNull(index.getDbId("not a term"));
+	}
+}
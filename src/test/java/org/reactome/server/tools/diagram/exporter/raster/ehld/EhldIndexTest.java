@@ -0,0 +1,19 @@
+package org.reactome.server.tools.diagram.exporter.raster.ehld;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EhldIndexTest {
+
+	private static final String EHLD_PATH = "src/test/resources/org/reactome/server/tools/diagram/exporter/ehld";
+
+	@Test
+	public void testIndex() throws Exception {
+		final EhldIndex index = EhldIndex.get(EHLD_PATH, "R-HSA-109582");
+		Assert.assertFalse(index.getPathways().isEmpty());
+		// ANALINFO boxes have bounds
+		Assert.assertTrue(index.getPathways().stream().anyMatch(stId -> index.getAnalysisInfoBounds(stId) != null));
+		// the file has not changed
+		Assert.assertSame(index, EhldIndex.get(EHLD_PATH, "R-HSA-109582"));
+	}
+}
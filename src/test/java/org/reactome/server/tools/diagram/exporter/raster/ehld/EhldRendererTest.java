@@ -1,16 +1,47 @@
 package org.reactome.server.tools.diagram.exporter.raster.ehld;
 
+import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactome.server.analysis.core.result.AnalysisStoredResult;
+import org.reactome.server.tools.diagram.exporter.common.content.ContentServiceClient;
 import org.reactome.server.tools.diagram.exporter.raster.TestUtils;
 import org.reactome.server.tools.diagram.exporter.raster.api.RasterArgs;
+import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorFactory;
 import org.reactome.server.tools.diagram.exporter.raster.profiles.ColorProfiles;
+import org.w3c.dom.Element;
+import org.w3c.dom.svg.SVGDocument;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 
 public class EhldRendererTest {
 
+	private static final String EHLD_PATH = "src/test/resources/org/reactome/server/tools/diagram/exporter/ehld";
+	private static final String DIAGRAM_PATH = "src/test/resources/org/reactome/server/tools/diagram/exporter/diagram";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void testBasicEHLD() {
 		final RasterArgs args = new RasterArgs("R-HSA-382551", "png");
@@ -55,6 +86,84 @@ public class EhldRendererTest {
 		TestUtils.render(args, null);
 	}
 
+	@Test
+	public void testOfflineFlags() throws Exception {
+		final File diagramPath = createDiagramPath();
+		final RasterArgs args = new RasterArgs("R-HSA-109581", "png");
+		final int[] plain = render(args, null);
+		// flags are resolved with the graphs, without the ContentService
+		final List<String> regions = EhldIndex.get(EHLD_PATH, "R-HSA-109581").getPathways();
+		Assert.assertNotNull(EhldFlagIndex.get(diagramPath.getPath(), "R-HSA-109581", regions));
+		args.setFlags(Collections.singletonList("BAK1"));
+		final String host = ContentServiceClient.getHost();
+		final BufferedImage image;
+		try {
+			// nothing listens there, so asking the ContentService gives no flags
+			ContentServiceClient.setHost("http://localhost:1");
+			image = new EhldRenderer(args, EHLD_PATH, diagramPath.getPath(), null).render();
+		} finally {
+			ContentServiceClient.setHost(host);
+		}
+		final int[] flagged = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+		Assert.assertFalse(Arrays.equals(plain, flagged));
+	}
+
+	@Test
+	public void testVectorHalo() throws Exception {
+		final String diagramPath = createDiagramPath().getPath();
+		// BAK1 is only in R-HSA-109606, so each region gets one halo
+		final RasterArgs args = new RasterArgs("R-HSA-109581", "png");
+		args.setSelected(Collections.singletonList("R-HSA-169911"));
+		args.setFlags(Collections.singletonList("BAK1"));
+		args.setVectorHalo(true);
+		args.setQuality(8);
+		final Color selection = args.getProfiles().getDiagramSheet().getProperties().getSelection();
+		final Color flag = args.getProfiles().getDiagramSheet().getProperties().getFlag();
+
+		final EhldRenderer renderer = new EhldRenderer(args, EHLD_PATH, diagramPath, null);
+		final SVGDocument document = renderer.renderToSvg();
+		assertHalo(document, "R-HSA-169911", "ST-SELECTION-HALO", selection);
+		assertHalo(document, "R-HSA-109606", "ST-FLAG-HALO", flag);
+		Assert.assertNull(document.getElementById("HALO-R-HSA-75153"));
+		final BufferedImage image = renderer.render();
+
+		final RasterArgs plainArgs = new RasterArgs("R-HSA-109581", "png");
+		plainArgs.setQuality(8);
+		final BufferedImage plain = new EhldRenderer(plainArgs, EHLD_PATH, null).render();
+		// the halos paint the borders of the regions with the exact colors
+		Assert.assertTrue(count(image, selection) > count(plain, selection));
+		Assert.assertTrue(count(image, flag) > count(plain, flag));
+	}
+
+	private static void assertHalo(SVGDocument document, String stId, String haloClass, Color color) {
+		final Element halo = document.getElementById("HALO-" + stId);
+		Assert.assertNotNull(halo);
+		Assert.assertEquals(haloClass, halo.getAttribute("class"));
+		Assert.assertTrue(halo.getAttribute("style").contains("stroke:" + ColorFactory.hex(color)));
+		Assert.assertTrue(halo.hasChildNodes());
+		// below the shapes of the region
+		Assert.assertSame(halo, document.getElementById("REGION-" + stId).getFirstChild());
+	}
+
+	private static long count(BufferedImage image, Color color) {
+		final int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+		return Arrays.stream(pixels).filter(pixel -> pixel == color.getRGB()).count();
+	}
+
+	/**
+	 * Graphs for the regions of R-HSA-109581. Only R-HSA-109606 has one in
+	 * the test resources, the rest of the regions get an empty one.
+	 */
+	private File createDiagramPath() throws IOException {
+		final File diagramPath = folder.newFolder();
+		Files.copy(Paths.get(DIAGRAM_PATH, "R-HSA-109606.graph.json"), diagramPath.toPath().resolve("R-HSA-109606.graph.json"));
+		for (String region : Arrays.asList("R-HSA-169911", "R-HSA-5357769", "R-HSA-75153")) {
+			final String json = String.format("{\"dbId\":%s,\"stId\":\"%s\",\"nodes\":[],\"edges\":[],\"subpathways\":[]}", region.substring(6), region);
+			Files.write(diagramPath.toPath().resolve(region + ".graph.json"), json.getBytes(StandardCharsets.UTF_8));
+		}
+		return diagramPath;
+	}
+
 	@Test
 	public void testEnrichment() {
 		final RasterArgs args = new RasterArgs("R-HSA-109582", "png");
@@ -78,6 +187,89 @@ public class EhldRendererTest {
 		TestUtils.renderGif(args, null);
 	}
 
+	@Test
+	public void testAnimatedFrames() throws Exception {
+		final RasterArgs args = new RasterArgs("R-HSA-6806667", "gif");
+		final AnalysisStoredResult result = TestUtils.getResult(TestUtils.TOKEN_EXPRESSION_1);
+		final int columns = result.getExpressionSummary().getColumnNames().size();
+		final EhldRenderer renderer = new EhldRenderer(args, EHLD_PATH, result);
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		renderer.renderToAnimatedGif(os);
+		final List<int[]> frames = readFrames(os.toByteArray());
+		Assert.assertEquals(columns, frames.size());
+		// the legend tick moves on every frame, and the overlays change with
+		// the expression values
+		for (int i = 1; i < frames.size(); i++)
+			Assert.assertFalse(Arrays.equals(frames.get(i - 1), frames.get(i)));
+
+		// the tree is disposed after each render, and built again on the next
+		final ByteArrayOutputStream again = new ByteArrayOutputStream();
+		renderer.renderToAnimatedGif(again);
+		Assert.assertArrayEquals(os.toByteArray(), again.toByteArray());
+	}
+
+	@Test
+	public void testRenderAfterDispose() throws Exception {
+		final RasterArgs args = new RasterArgs("R-HSA-109581", "png");
+		args.setSelected(Collections.singletonList("R-HSA-109606"));
+		final EhldRenderer renderer = new EhldRenderer(args, EHLD_PATH, null);
+		final BufferedImage first = renderer.render();
+		final BufferedImage second = renderer.render();
+		Assert.assertArrayEquals(
+				first.getRGB(0, 0, first.getWidth(), first.getHeight(), null, 0, first.getWidth()),
+				second.getRGB(0, 0, second.getWidth(), second.getHeight(), null, 0, second.getWidth()));
+	}
+
+	private static List<int[]> readFrames(byte[] gif) throws IOException {
+		final List<int[]> frames = new ArrayList<>();
+		try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(gif))) {
+			final ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+			reader.setInput(input);
+			for (int i = 0; i < reader.getNumImages(true); i++) {
+				final BufferedImage frame = reader.read(i);
+				frames.add(frame.getRGB(0, 0, frame.getWidth(), frame.getHeight(), null, 0, frame.getWidth()));
+			}
+			reader.dispose();
+		}
+		return frames;
+	}
+
+	/**
+	 * Renders directly, skipping the cache and the coalescing of the exporter
+	 */
+	private static int[] render(RasterArgs args, String token) throws Exception {
+		final EhldRenderer renderer = new EhldRenderer(args, EHLD_PATH, token == null ? null : TestUtils.getResult(token));
+		final BufferedImage image = renderer.render();
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final List<RasterArgs> argsList = Arrays.asList(
+				new RasterArgs("R-HSA-109582", "png"),
+				new RasterArgs("R-HSA-6806667", "png"),
+				new RasterArgs("R-HSA-69278", "png"));
+		final List<String> tokens = Arrays.asList(TestUtils.TOKEN_OVER_1, TestUtils.TOKEN_EXPRESSION_1, null);
+		argsList.get(2).setSelected(Arrays.asList("R-HSA-69242", "R-HSA-68886"));
+		final List<int[]> expected = new ArrayList<>();
+		for (int i = 0; i < argsList.size(); i++)
+			expected.add(render(argsList.get(i), tokens.get(i)));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<int[]>> futures = new ArrayList<>();
+			for (int repeat = 0; repeat < 8; repeat++)
+				for (int i = 0; i < argsList.size(); i++) {
+					final int index = i;
+					futures.add(executor.submit(() -> render(argsList.get(index), tokens.get(index))));
+				}
+			for (int i = 0; i < futures.size(); i++)
+				Assert.assertArrayEquals(expected.get(i % argsList.size()), futures.get(i).get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	@Test
 	public void testVisualArtifacts() {
 		final RasterArgs args = new RasterArgs("R-HSA-69278", "png");
@@ -0,0 +1,145 @@
+package org.reactome.server.tools.diagram.exporter.raster.gif;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Encodes indexed pixels with {@link LZWEncoder} inside a minimal GIF and
+ * decodes them back with javax.imageio, which must return exactly the same
+ * indices.
+ */
+public class LZWEncoderTest {
+
+	private static final int WIDTH = 317;
+	private static final int HEIGHT = 211;
+
+	@Test
+	public void testNoise() throws IOException {
+		// Random data fills the code table quickly, forcing several clears
+		final byte[] pixels = new byte[WIDTH * HEIGHT];
+		new Random(42).nextBytes(pixels);
+		assertDecodes(new LZWEncoder(), pixels, 8);
+	}
+
+	@Test
+	public void testFlat() throws IOException {
+		assertDecodes(new LZWEncoder(), new byte[WIDTH * HEIGHT], 8);
+	}
+
+	@Test
+	public void testLowColorDepth() throws IOException {
+		final byte[] pixels = new byte[WIDTH * HEIGHT];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (byte) ((i / 7) % 4);
+		assertDecodes(new LZWEncoder(), pixels, 2);
+	}
+
+	@Test
+	public void testReuse() throws IOException {
+		// Same encoder for several frames, as AnimatedGifEncoder does
+		final LZWEncoder encoder = new LZWEncoder();
+		final Random random = new Random(7);
+		for (int frame = 0; frame < 5; frame++) {
+			final byte[] pixels = new byte[WIDTH * HEIGHT];
+			for (int i = 0; i < pixels.length; i++)
+				pixels[i] = (byte) (random.nextInt(1 + frame * 50) + (i / WIDTH));
+			assertDecodes(encoder, pixels, 8);
+		}
+	}
+
+	@Test
+	public void testAnimatedGif() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+		encoder.start(os);
+		final Color[] colors = {Color.RED, Color.GREEN, Color.BLUE};
+		for (Color color : colors) {
+			final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+			final Graphics2D graphics = image.createGraphics();
+			graphics.setBackground(Color.WHITE);
+			graphics.clearRect(0, 0, WIDTH, HEIGHT);
+			graphics.setPaint(color);
+			graphics.fillRect(WIDTH / 4, HEIGHT / 4, WIDTH / 2, HEIGHT / 2);
+			Assert.assertTrue(encoder.addFrame(image));
+		}
+		Assert.assertTrue(encoder.finish());
+
+		try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(os.toByteArray()))) {
+			final ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+			reader.setInput(input);
+			Assert.assertEquals(colors.length, reader.getNumImages(true));
+			for (int i = 0; i < colors.length; i++) {
+				final BufferedImage frame = reader.read(i);
+				final Color center = new Color(frame.getRGB(WIDTH / 2, HEIGHT / 2));
+				final Color corner = new Color(frame.getRGB(0, 0));
+				Assert.assertTrue(distance(colors[i], center) < 30);
+				Assert.assertTrue(distance(Color.WHITE, corner) < 30);
+			}
+			reader.dispose();
+		}
+	}
+
+	private static int distance(Color a, Color b) {
+		return Math.abs(a.getRed() - b.getRed())
+				+ Math.abs(a.getGreen() - b.getGreen())
+				+ Math.abs(a.getBlue() - b.getBlue());
+	}
+
+	private static void assertDecodes(LZWEncoder encoder, byte[] pixels, int colorDepth) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writeGif(encoder, pixels, colorDepth, os);
+		final BufferedImage image = ImageIO.read(new ByteArrayInputStream(os.toByteArray()));
+		Assert.assertNotNull(image);
+		Assert.assertEquals(WIDTH, image.getWidth());
+		Assert.assertEquals(HEIGHT, image.getHeight());
+		final Raster raster = image.getRaster();
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++)
+				Assert.assertEquals("pixel (" + x + "," + y + ")",
+						pixels[y * WIDTH + x] & 0xff, raster.getSample(x, y, 0));
+	}
+
+	/**
+	 * Writes a single frame GIF with a grey global color table of 2^colorDepth
+	 * entries.
+	 */
+	private static void writeGif(LZWEncoder encoder, byte[] pixels, int colorDepth, ByteArrayOutputStream os) throws IOException {
+		os.write("GIF89a".getBytes("US-ASCII"));
+		writeShort(os, WIDTH);
+		writeShort(os, HEIGHT);
+		os.write(0x80 | 0x70 | (colorDepth - 1)); // global color table
+		os.write(0); // background color index
+		os.write(0); // pixel aspect ratio
+		final int colors = 1 << colorDepth;
+		for (int i = 0; i < colors; i++) {
+			final int grey = i * 255 / (colors - 1);
+			os.write(grey);
+			os.write(grey);
+			os.write(grey);
+		}
+		os.write(0x2c); // image separator
+		writeShort(os, 0);
+		writeShort(os, 0);
+		writeShort(os, WIDTH);
+		writeShort(os, HEIGHT);
+		os.write(0); // no local color table
+		encoder.encode(os, pixels, pixels.length, colorDepth);
+		os.write(0x3b); // trailer
+	}
+
+	private static void writeShort(ByteArrayOutputStream os, int value) {
+		os.write(value & 0xff);
+		os.write((value >> 8) & 0xff);
+	}
+}
@@ -0,0 +1,69 @@
+package org.reactome.server.tools.diagram.exporter.raster.profiles;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Random;
+import java.util.Set;
+
+public class GradientSheetTest {
+
+	private static GradientSheet gradient(String min, String stop, String max) {
+		final GradientSheet gradient = new GradientSheet();
+		gradient.setMin(min);
+		gradient.setStop(stop);
+		gradient.setMax(max);
+		return gradient;
+	}
+
+	@Test
+	public void testLimits() {
+		final GradientSheet gradient = gradient("#FFFF00", "#00FF00", "rgba(0, 0, 255, 0.5)");
+		Assert.assertEquals(gradient.getMin(), gradient.getColor(0));
+		Assert.assertEquals(gradient.getStop(), gradient.getColor(0.5));
+		Assert.assertEquals(gradient.getMax(), gradient.getColor(1));
+		// out of range values are clamped
+		Assert.assertEquals(gradient.getMin(), gradient.getColor(-3));
+		Assert.assertEquals(gradient.getMax(), gradient.getColor(7));
+		Assert.assertEquals(gradient.getMin(), gradient.getColor(Double.NaN));
+		Assert.assertEquals("#0000FF", gradient.getHex(1));
+	}
+
+	@Test
+	public void testLut() {
+		final Random random = new Random(0);
+		for (GradientSheet gradient : new GradientSheet[]{
+				gradient("#FFFF00", null, "#0000FF"),
+				gradient("#FF0000", "#FFFFFF", "#000000")}) {
+			for (int i = 0; i < 10000; i++) {
+				final double scale = random.nextDouble();
+				final Color expected = gradient.interpolate(scale);
+				final Color color = gradient.getColor(scale);
+				Assert.assertEquals(expected.getRed(), color.getRed(), 1);
+				Assert.assertEquals(expected.getGreen(), color.getGreen(), 1);
+				Assert.assertEquals(expected.getBlue(), color.getBlue(), 1);
+				Assert.assertEquals(expected.getAlpha(), color.getAlpha(), 1);
+				Assert.assertEquals(ColorFactory.hex(color), gradient.getHex(scale));
+			}
+		}
+	}
+
+	@Test
+	public void testExpressionFrame() {
+		// colors for every strip of a big diagram in every column are taken
+		// from the table, not created
+		final GradientSheet gradient = gradient("#FFFF00", "#00FF00", "#0000FF");
+		final Set<Color> colors = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Random random = new Random(0);
+		for (int column = 0; column < 20; column++)
+			for (int strip = 0; strip < 5000; strip++)
+				colors.add(ColorFactory.interpolate(gradient, random.nextDouble()));
+		Assert.assertTrue(colors.size() <= GradientSheet.LUT_SIZE);
+		// a new table is built when the gradient changes
+		gradient.setMax("#FF0000");
+		Assert.assertEquals(new Color(255, 0, 0), gradient.getColor(1));
+	}
+}
@@ -0,0 +1,156 @@
+package org.reactome.server.tools.diagram.exporter.raster.svg;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+public class SvgWriterGraphicsTest {
+
+	private static Document parse(String svg) throws Exception {
+		final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		return factory.newDocumentBuilder().parse(new ByteArrayInputStream(svg.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testElements() throws Exception {
+		final StringWriter writer = new StringWriter();
+		final SvgWriterGraphics graphics = new SvgWriterGraphics(writer);
+		graphics.start(new Rectangle2D.Double(-10, -10, 120, 120));
+		graphics.setPaint(new Color(255, 0, 0, 128));
+		graphics.fill(new Rectangle2D.Double(0, 0, 10.25, 10));
+		graphics.setPaint(Color.BLUE);
+		graphics.setStroke(new BasicStroke(2, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 5f, new float[]{5f, 5f}, 5f));
+		graphics.draw(new Ellipse2D.Double(20, 20, 30, 30));
+		graphics.setPaint(new GradientPaint(0, 0, Color.WHITE, 0, 100, Color.BLACK));
+		graphics.fill(new Rectangle2D.Double(50, 50, 10, 10));
+		graphics.setPaint(Color.BLACK);
+		graphics.setFont(new Font("Arial", Font.BOLD, 8));
+		graphics.setClip(new Rectangle2D.Double(0, 0, 50, 50));
+		graphics.drawString("a < b & c", 5, 5);
+		graphics.drawString("second line", 5, 15);
+		graphics.setClip(null);
+		graphics.drawImage(new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB), 80, 80, 10, 10, null);
+		graphics.finish();
+
+		final Document document = parse(writer.toString());
+		final Element root = document.getDocumentElement();
+		Assert.assertEquals("svg", root.getLocalName());
+		Assert.assertEquals("-10 -10 120 120", root.getAttribute("viewBox"));
+
+		final NodeList paths = document.getElementsByTagName("path");
+		// 3 shapes and 1 clip
+		Assert.assertEquals(4, paths.getLength());
+		final Element rectangle = (Element) paths.item(0);
+		Assert.assertEquals("M0 0 L10.25 0 L10.25 10 L0 10 L0 0 Z", rectangle.getAttribute("d"));
+		Assert.assertEquals("#ff0000", rectangle.getAttribute("fill"));
+		Assert.assertEquals("0.502", rectangle.getAttribute("fill-opacity"));
+		final Element ellipse = (Element) paths.item(1);
+		Assert.assertEquals("none", ellipse.getAttribute("fill"));
+		Assert.assertEquals("#0000ff", ellipse.getAttribute("stroke"));
+		Assert.assertEquals("2", ellipse.getAttribute("stroke-width"));
+		Assert.assertEquals("5,5", ellipse.getAttribute("stroke-dasharray"));
+
+		Assert.assertEquals(1, document.getElementsByTagName("linearGradient").getLength());
+		final Element gradient = (Element) document.getElementsByTagName("linearGradient").item(0);
+		Assert.assertEquals("url(#" + gradient.getAttribute("id") + ")", ((Element) paths.item(2)).getAttribute("fill"));
+
+		final NodeList texts = document.getElementsByTagName("text");
+		Assert.assertEquals(2, texts.getLength());
+		Assert.assertEquals("a < b & c", texts.item(0).getTextContent());
+		Assert.assertEquals("bold", ((Element) texts.item(0)).getAttribute("font-weight"));
+		// both texts share the clip
+		Assert.assertEquals(1, document.getElementsByTagName("clipPath").getLength());
+		final String clip = ((Element) texts.item(0)).getAttribute("clip-path");
+		Assert.assertEquals(clip, ((Element) texts.item(1)).getAttribute("clip-path"));
+
+		final Element image = (Element) document.getElementsByTagName("image").item(0);
+		Assert.assertTrue(image.getAttributeNS("http://www.w3.org/1999/xlink", "href").startsWith("data:image/png;base64,"));
+		Assert.assertEquals("", image.getAttribute("clip-path"));
+	}
+
+	/**
+	 * Stoichiometry-like boxes and lines, as painted by the layers
+	 */
+	private static long paint(SvgWriterGraphics graphics) {
+		graphics.start(new Rectangle2D.Double(0, 0, 200, 200));
+		graphics.setStroke(new BasicStroke(1));
+		for (int i = 0; i < 10; i++) {
+			final Shape box = new RoundRectangle2D.Double(10 + 15 * i, 10, 10, 10, 2, 2);
+			graphics.setPaint(Color.WHITE);
+			graphics.fill(box);
+			graphics.setPaint(Color.BLACK);
+			graphics.draw(box);
+		}
+		graphics.setPaint(new Color(0x333333));
+		for (int i = 0; i < 10; i++)
+			graphics.draw(new Line2D.Double(10, 30 + 10 * i, 190.123456, 35 + 10 * i));
+		graphics.finish();
+		return graphics.getSize();
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		final StringWriter verbose = new StringWriter();
+		final long verboseSize = paint(new SvgWriterGraphics(verbose));
+		final StringWriter compact = new StringWriter();
+		final SvgWriterGraphics graphics = new SvgWriterGraphics(compact);
+		graphics.setCompact(true);
+		graphics.setCountVerbose(true);
+		graphics.setPrecision(1);
+		final long compactSize = paint(graphics);
+		Assert.assertEquals(verbose.toString().length(), verboseSize);
+		// the verbose size is counted in the same paint, with the same precision
+		final StringWriter precise = new StringWriter();
+		final SvgWriterGraphics preciseGraphics = new SvgWriterGraphics(precise);
+		preciseGraphics.setPrecision(1);
+		Assert.assertEquals(paint(preciseGraphics), graphics.getVerboseSize());
+		Assert.assertEquals(compact.toString().length(), compactSize);
+		Assert.assertTrue(compactSize < verboseSize / 2);
+
+		final Document document = parse(compact.toString());
+		// white fill, black border and grey line
+		Assert.assertEquals(1, document.getElementsByTagName("style").getLength());
+		Assert.assertEquals(3, document.getElementsByTagName("style").item(0).getTextContent().trim().split("\n").length);
+		// the box is a path the first time, and then it is defined and used
+		final NodeList paths = document.getElementsByTagName("path");
+		final NodeList uses = document.getElementsByTagName("use");
+		Assert.assertEquals(19, uses.getLength());
+		// first fill, the definition and the merged lines
+		Assert.assertEquals(3, paths.getLength());
+		final Element lines = (Element) paths.item(2);
+		Assert.assertEquals("M10 30 L190.1 35", lines.getAttribute("d").substring(0, 16));
+		Assert.assertEquals(10, lines.getAttribute("d").split("M").length - 1);
+	}
+
+	@Test
+	public void testGradientsNotShared() throws Exception {
+		final StringWriter writer = new StringWriter();
+		final SvgWriterGraphics graphics = new SvgWriterGraphics(writer);
+		graphics.setCompact(true);
+		graphics.start(new Rectangle2D.Double(0, 0, 200, 200));
+		// a legend like color bar, painted twice at different positions
+		for (int i = 0; i < 3; i++) {
+			graphics.setPaint(new GradientPaint(50 * i, 0, Color.YELLOW, 50 * i, 100, Color.BLUE));
+			graphics.fill(new Rectangle2D.Double(50 * i, 0, 20, 100));
+		}
+		graphics.finish();
+		final Document document = parse(writer.toString());
+		// the gradients are in absolute coordinates, so they can't be moved
+		Assert.assertEquals(0, document.getElementsByTagName("use").getLength());
+		Assert.assertEquals(3, document.getElementsByTagName("path").getLength());
+	}
+}
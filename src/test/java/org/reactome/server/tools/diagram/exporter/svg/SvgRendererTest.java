@@ -13,6 +13,29 @@ public class SvgRendererTest {
 		TestUtils.renderSvg(args, null);
 	}
 
+	@Test
+	public void testDiagramStream() {
+		final RasterArgs args = new RasterArgs("R-HSA-109606", "svg");
+		args.setToken(TestUtils.TOKEN_OVER_2);
+		TestUtils.renderSvgStream(args, null);
+	}
+
+	@Test
+	public void testDiagramCompact() {
+		final RasterArgs args = new RasterArgs("R-HSA-109606", "svg");
+		args.setToken(TestUtils.TOKEN_OVER_2);
+		args.setCompact(true);
+		args.setPrecision(1);
+		TestUtils.renderSvgStream(args, null);
+	}
+
+	@Test
+	public void testDiagramSvgz() {
+		final RasterArgs args = new RasterArgs("R-HSA-109606", "svgz");
+		args.setCompact(true);
+		TestUtils.renderSvgz(args);
+	}
+
 	@Test
 	public void testEhld() {
 		final RasterArgs args = new RasterArgs("R-HSA-74160", "svg");